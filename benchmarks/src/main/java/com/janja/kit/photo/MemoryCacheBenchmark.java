@@ -0,0 +1,85 @@
+package com.janja.kit.photo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * The byte and bitmap memory caches in PhotoManager are support LruCaches
+ * guarded by a single monitor; these measure them with several binding
+ * threads and with a decoder thread inserting while others read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemoryCacheBenchmark {
+
+    private static final int KEY_COUNT = 512;
+    private static final int ENTRY_SIZE = 1024 * 16;
+
+    private PhotoRequestKey[] keys;
+    private byte[] entry;
+    private LruCache<PhotoRequestKey, byte[]> cache;
+
+    @Setup
+    public void setUp() {
+        keys = new PhotoRequestKey[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = new PhotoRequestKey("http://img.example.com/photos/" + i
+                    + ".jpg", 200, 200, "ARGB_8888");
+        }
+        entry = new byte[ENTRY_SIZE];
+        cache = new LruCache<PhotoRequestKey, byte[]>(ENTRY_SIZE * KEY_COUNT
+                / 2) {
+            @Override
+            protected int sizeOf(PhotoRequestKey key, byte[] value) {
+                return value.length;
+            }
+        };
+        for (int i = 0; i < KEY_COUNT; i += 2) {
+            cache.put(keys[i], entry);
+        }
+    }
+
+    private PhotoRequestKey randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] getSingleThread() {
+        return cache.get(randomKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] getContended() {
+        return cache.get(randomKey());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public byte[] mixedGet() {
+        return cache.get(randomKey());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public byte[] mixedPut() {
+        return cache.put(randomKey(), entry);
+    }
+}
@@ -0,0 +1,104 @@
+package com.janja.kit.photo;
+
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Fills a scheduling queue with a screenful of work and drains it, the
+ * pattern a fling produces. PhotoPriorityQueue is compared against the
+ * JDK heap and the FIFO queue it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PriorityQueueBenchmark {
+
+    @Param({ "8", "48", "256" })
+    int depth;
+
+    private Task[] tasks;
+
+    static class Task implements Runnable, PhotoPriorityQueue.Prioritized {
+        final int priority;
+        final long sequence;
+
+        Task(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private static final Comparator<Runnable> ORDER = new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable a, Runnable b) {
+            Task left = (Task) a;
+            Task right = (Task) b;
+            if (left.priority != right.priority) {
+                return right.priority - left.priority;
+            }
+            return left.sequence < right.sequence ? -1
+                    : (left.sequence == right.sequence ? 0 : 1);
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        tasks = new Task[depth];
+        for (int i = 0; i < depth; i++) {
+            tasks[i] = new Task(i % 3, i);
+        }
+    }
+
+    private long fillAndDrain(BlockingQueue<Runnable> queue) {
+        for (Task task : tasks) {
+            queue.offer(task);
+        }
+        long checksum = 0;
+        Runnable runnable;
+        while ((runnable = queue.poll()) != null) {
+            checksum += ((Task) runnable).sequence;
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long photoPriorityQueue() {
+        return fillAndDrain(new PhotoPriorityQueue(Integer.MAX_VALUE));
+    }
+
+    @Benchmark
+    public long priorityBlockingQueue() {
+        return fillAndDrain(new PriorityBlockingQueue<Runnable>(depth, ORDER));
+    }
+
+    @Benchmark
+    public long linkedBlockingQueue() {
+        return fillAndDrain(new LinkedBlockingQueue<Runnable>());
+    }
+}
@@ -0,0 +1,101 @@
+package com.janja.kit.photo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * PhotoSegmentedBuffer.readFully, the body read loop every fetcher goes
+ * through, against an in-memory stream that hands out socket-sized chunks.
+ * growingArray is the loop PhotoDownloadRunnable used before pooled segments
+ * for bodies without a Content-Length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadLoopBenchmark {
+
+    private static final int READ_SIZE = 1024 * 2;
+    private static final int SOCKET_CHUNK = 1460;
+
+    @Param({ "16384", "262144", "2097152" })
+    int size;
+
+    private byte[] body;
+    private PhotoByteArrayPool pool;
+
+    @Setup
+    public void setUp() {
+        body = new byte[size];
+        new Random(42).nextBytes(body);
+        pool = new PhotoByteArrayPool(1024 * 16, 64);
+    }
+
+    @Benchmark
+    public byte[] growingArray() throws IOException {
+        InputStream byteStream = new ChunkedInputStream(body, SOCKET_CHUNK);
+        byte[] tempBuffer = new byte[READ_SIZE];
+        int bufferLeft = tempBuffer.length;
+        int bufferOffset = 0;
+
+        outer: do {
+            while (bufferLeft > 0) {
+                int readResult = byteStream.read(tempBuffer, bufferOffset,
+                        bufferLeft);
+                if (readResult < 0) {
+                    break outer;
+                }
+                bufferOffset += readResult;
+                bufferLeft -= readResult;
+            }
+            bufferLeft = READ_SIZE;
+
+            byte[] expandedBuffer = new byte[tempBuffer.length + READ_SIZE];
+            System.arraycopy(tempBuffer, 0, expandedBuffer, 0,
+                    tempBuffer.length);
+            tempBuffer = expandedBuffer;
+        } while (true);
+
+        byte[] byteBuffer = new byte[bufferOffset];
+        System.arraycopy(tempBuffer, 0, byteBuffer, 0, bufferOffset);
+        return byteBuffer;
+    }
+
+    @Benchmark
+    public byte[] segmentedBuffer() throws IOException, InterruptedException {
+        return PhotoSegmentedBuffer.readFully(
+                new ChunkedInputStream(body, SOCKET_CHUNK), -1, pool);
+    }
+
+    @Benchmark
+    public byte[] knownLength() throws IOException, InterruptedException {
+        return PhotoSegmentedBuffer.readFully(
+                new ChunkedInputStream(body, SOCKET_CHUNK), size, pool);
+    }
+
+    static class ChunkedInputStream extends ByteArrayInputStream {
+
+        private final int chunk;
+
+        ChunkedInputStream(byte[] data, int chunk) {
+            super(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.janja.kit.photo;
+
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Recycling throughput of the pooled download segments and of the
+ * LinkedBlockingQueue that PhotoManager recycles tasks through. Each task
+ * runs the PhotoTaskState transitions PhotoTask makes on the way through the
+ * pipeline, ending in the generation bump of PhotoTask.recycle().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecycleBenchmark {
+
+    private static final int SEGMENT_SIZE = 1024 * 16;
+
+    private PhotoByteArrayPool segmentPool;
+    private Queue<PhotoTaskState> taskPool;
+
+    @Setup
+    public void setUp() {
+        segmentPool = new PhotoByteArrayPool(SEGMENT_SIZE, 64);
+        taskPool = new LinkedBlockingQueue<PhotoTaskState>();
+        for (int i = 0; i < 16; i++) {
+            taskPool.offer(new PhotoTaskState());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] segmentPoolGetPut() {
+        byte[] segment = segmentPool.get();
+        segmentPool.put(segment);
+        return segment;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] segmentAllocate() {
+        return new byte[SEGMENT_SIZE];
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PhotoTaskState taskPoolRecycle() {
+        PhotoTaskState task = taskPool.poll();
+        if (task == null) {
+            task = new PhotoTaskState();
+        }
+        runPipeline(task);
+        task.recycle();
+        taskPool.offer(task);
+        return task;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PhotoTaskState taskAllocate() {
+        PhotoTaskState task = new PhotoTaskState();
+        runPipeline(task);
+        return task;
+    }
+
+    private static void runPipeline(PhotoTaskState task) {
+        task.setState(PhotoTaskState.STATE_QUEUED);
+        task.advance(PhotoTaskState.STATE_DOWNLOADING);
+        task.advance(PhotoTaskState.STATE_DECODING);
+        task.advance(PhotoTaskState.STATE_DELIVERING);
+    }
+}
@@ -0,0 +1,96 @@
+package com.janja.kit.photo;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of building a cache key for a bind and looking it up, against the
+ * string concatenation key the bitmap cache used before PhotoRequestKey
+ * and a java.net.URL key, whose hashCode and equals resolve the host.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestKeyBenchmark {
+
+    private static final int KEY_COUNT = 256;
+
+    private String[] urls;
+    private Map<PhotoRequestKey, Object> requestKeys;
+    private Map<String, Object> stringKeys;
+    private String[] unresolvedUrls;
+    private Map<URL, Object> urlKeys;
+    private PhotoRequestKey[] builtKeys;
+    private int next;
+
+    @Setup
+    public void setUp() throws MalformedURLException {
+        urls = new String[KEY_COUNT];
+        builtKeys = new PhotoRequestKey[KEY_COUNT];
+        requestKeys = new HashMap<PhotoRequestKey, Object>();
+        stringKeys = new HashMap<String, Object>();
+        unresolvedUrls = new String[KEY_COUNT];
+        urlKeys = new HashMap<URL, Object>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            urls[i] = "http://img.example.com/photos/album/" + i
+                    + ".jpg?size=large";
+            builtKeys[i] = new PhotoRequestKey(urls[i], 240, 320, "ARGB_8888");
+            requestKeys.put(builtKeys[i], this);
+            stringKeys.put(stringKey(urls[i]), this);
+            // .invalid never resolves; URL.hashCode still asks the resolver
+            // on every new URL, which makes this a lower bound on device.
+            unresolvedUrls[i] = "http://img.example.invalid/photos/album/" + i
+                    + ".jpg?size=large";
+            urlKeys.put(new URL(unresolvedUrls[i]), this);
+        }
+    }
+
+    private static String stringKey(String url) {
+        return url + '#' + 240 + 'x' + 320 + ':' + "ARGB_8888";
+    }
+
+    private String nextUrl() {
+        next = (next + 1) & (KEY_COUNT - 1);
+        return urls[next];
+    }
+
+    @Benchmark
+    public Object buildAndLookupRequestKey() {
+        return requestKeys.get(new PhotoRequestKey(nextUrl(), 240, 320,
+                "ARGB_8888"));
+    }
+
+    @Benchmark
+    public Object buildAndLookupStringKey() {
+        return stringKeys.get(stringKey(nextUrl()));
+    }
+
+    @Benchmark
+    public Object buildAndLookupUrlKey() throws MalformedURLException {
+        next = (next + 1) & (KEY_COUNT - 1);
+        return urlKeys.get(new URL(unresolvedUrls[next]));
+    }
+
+    @Benchmark
+    public Object lookupPrebuiltRequestKey() {
+        next = (next + 1) & (KEY_COUNT - 1);
+        return requestKeys.get(builtKeys[next]);
+    }
+
+    @Benchmark
+    public PhotoRequestKey sourceKey() {
+        next = (next + 1) & (KEY_COUNT - 1);
+        return builtKeys[next].getSourceKey();
+    }
+}
@@ -0,0 +1,221 @@
+package com.janja.kit.photo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class PhotoCacheHeadersTest {
+
+    private static final byte[] BODY = new byte[] { 1, 2, 3, 4 };
+
+    private TestHttpServer server;
+    private volatile int status;
+    private final Map<String, String> responseHeaders = new LinkedHashMap<String, String>();
+    private volatile String ifNoneMatch;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestHttpServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ifNoneMatch = exchange.getRequestHeaders().getFirst(
+                        "If-None-Match");
+                synchronized (responseHeaders) {
+                    for (Map.Entry<String, String> header : responseHeaders
+                            .entrySet()) {
+                        exchange.getResponseHeaders().set(header.getKey(),
+                                header.getValue());
+                    }
+                }
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    exchange.sendResponseHeaders(status, -1);
+                } else {
+                    exchange.sendResponseHeaders(status, BODY.length);
+                    OutputStream body = exchange.getResponseBody();
+                    body.write(BODY);
+                    body.close();
+                }
+                exchange.close();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private void respond(int status, String... headers) {
+        this.status = status;
+        synchronized (responseHeaders) {
+            responseHeaders.clear();
+            for (int i = 0; i < headers.length; i += 2) {
+                responseHeaders.put(headers[i], headers[i + 1]);
+            }
+        }
+    }
+
+    private PhotoCacheHeaders fetch(PhotoCacheHeaders validators, long now)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) server.getURL(
+                "/photo.jpg").openConnection();
+        try {
+            if (validators != null && validators.getEtag() != null) {
+                connection.setRequestProperty("If-None-Match",
+                        validators.getEtag());
+            }
+            assertEquals(status, connection.getResponseCode());
+            return PhotoCacheHeaders.fromConnection(connection, now);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static PhotoCacheHeaders roundTrip(PhotoCacheHeaders headers) {
+        return PhotoCacheHeaders.decode(headers.encode());
+    }
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    @Test
+    public void okWithMaxAgeIsFreshUntilItExpires() throws IOException {
+        long now = System.currentTimeMillis();
+        respond(HttpURLConnection.HTTP_OK, "Cache-Control", "max-age=60",
+                "ETag", "\"v1\"");
+
+        PhotoCacheHeaders headers = roundTrip(fetch(null, now));
+
+        assertEquals("\"v1\"", headers.getEtag());
+        assertEquals(now + TimeUnit.SECONDS.toMillis(60),
+                headers.getExpiresAt());
+        assertTrue(headers.isFresh(now + TimeUnit.SECONDS.toMillis(59)));
+        assertFalse(headers.isFresh(now + TimeUnit.SECONDS.toMillis(60)));
+        assertTrue(headers.hasValidators());
+        assertFalse(headers.isNoStore());
+    }
+
+    @Test
+    public void expiresIsMeasuredFromTheServerDate() throws IOException {
+        long now = System.currentTimeMillis();
+        respond(HttpURLConnection.HTTP_OK, "Expires",
+                httpDate(now + TimeUnit.MINUTES.toMillis(10)));
+
+        PhotoCacheHeaders headers = roundTrip(fetch(null, now));
+
+        assertTrue(headers.isFresh(now + TimeUnit.MINUTES.toMillis(9)));
+        assertFalse(headers.isFresh(now + TimeUnit.MINUTES.toMillis(11)));
+        assertFalse(headers.hasValidators());
+    }
+
+    @Test
+    public void lastModifiedGivesHeuristicFreshness() throws IOException {
+        long now = System.currentTimeMillis();
+        String lastModified = httpDate(now - TimeUnit.DAYS.toMillis(5));
+        respond(HttpURLConnection.HTTP_OK, "Last-Modified", lastModified);
+
+        PhotoCacheHeaders headers = roundTrip(fetch(null, now));
+
+        assertEquals(lastModified, headers.getLastModified());
+        assertEquals(lastModified, headers.getRangeValidator());
+        assertTrue(headers.isFresh(now + TimeUnit.HOURS.toMillis(11)));
+        assertFalse(headers.isFresh(now + TimeUnit.HOURS.toMillis(13)));
+    }
+
+    @Test
+    public void noCacheIsStaleImmediately() throws IOException {
+        long now = System.currentTimeMillis();
+        respond(HttpURLConnection.HTTP_OK, "Cache-Control",
+                "no-cache, max-age=600", "ETag", "\"v1\"");
+
+        PhotoCacheHeaders headers = roundTrip(fetch(null, now));
+
+        assertFalse(headers.isFresh(now));
+        assertTrue(headers.hasValidators());
+    }
+
+    @Test
+    public void notModifiedKeepsValidatorsAndTakesNewExpiry()
+            throws IOException {
+        long now = System.currentTimeMillis();
+        respond(HttpURLConnection.HTTP_OK, "Cache-Control", "max-age=0",
+                "ETag", "\"v1\"");
+        PhotoCacheHeaders stored = roundTrip(fetch(null, now));
+        assertFalse(stored.isFresh(now));
+
+        long later = now + TimeUnit.MINUTES.toMillis(5);
+        respond(HttpURLConnection.HTTP_NOT_MODIFIED, "Cache-Control",
+                "max-age=120");
+        PhotoCacheHeaders revalidated = roundTrip(stored.revalidated(fetch(
+                stored, later)));
+
+        assertEquals("\"v1\"", ifNoneMatch);
+        assertEquals("\"v1\"", revalidated.getEtag());
+        assertEquals(later + TimeUnit.SECONDS.toMillis(120),
+                revalidated.getExpiresAt());
+        assertTrue(revalidated.isFresh(later));
+    }
+
+    @Test
+    public void notModifiedTakesNewValidators() throws IOException {
+        long now = System.currentTimeMillis();
+        respond(HttpURLConnection.HTTP_OK, "ETag", "\"v1\"");
+        PhotoCacheHeaders stored = roundTrip(fetch(null, now));
+
+        respond(HttpURLConnection.HTTP_NOT_MODIFIED, "ETag", "\"v2\"",
+                "Cache-Control", "max-age=60");
+        PhotoCacheHeaders revalidated = stored.revalidated(fetch(stored, now));
+
+        assertEquals("\"v2\"", revalidated.getEtag());
+    }
+
+    @Test
+    public void noStoreSurvivesTheRoundTrip() throws IOException {
+        long now = System.currentTimeMillis();
+        respond(HttpURLConnection.HTTP_OK, "Cache-Control",
+                "no-store, max-age=60");
+
+        PhotoCacheHeaders headers = fetch(null, now);
+        assertTrue(headers.isNoStore());
+        assertTrue(roundTrip(headers).isNoStore());
+    }
+
+    @Test
+    public void weakEtagIsNotARangeValidator() {
+        PhotoCacheHeaders headers = new PhotoCacheHeaders("W/\"v1\"",
+                "Mon, 01 Jan 2024 00:00:00 GMT", 0, false);
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT",
+                headers.getRangeValidator());
+    }
+
+    @Test
+    public void malformedMetadataDecodesToNull() {
+        assertNull(PhotoCacheHeaders.decode(null));
+        assertNull(PhotoCacheHeaders.decode("\"v1\"\n".getBytes()));
+        assertNull(PhotoCacheHeaders.decode("\"v1\"\n\nsoon\nfalse"
+                .getBytes()));
+    }
+}
@@ -0,0 +1,141 @@
+package com.janja.kit.photo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reopens the cache over journals and files that a crash can leave behind.
+ */
+public class PhotoDiskCacheTest {
+
+    private static final long MAX_SIZE = 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] A = { 1, 2, 3 };
+    private static final byte[] B = { 4, 5, 6, 7 };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private PhotoDiskCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("cache");
+        cache = PhotoDiskCache.open(directory, MAX_SIZE);
+        assertTrue(cache.put("a", A));
+        assertTrue(cache.put("b", B));
+        cache.close();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+    }
+
+    @Test
+    public void tornFinalLineKeepsEarlierEntries() throws IOException {
+        appendJournal("CLEAN c");
+        writeFile("c", new byte[] { 9 });
+
+        cache = PhotoDiskCache.open(directory, MAX_SIZE);
+
+        assertArrayEquals(A, cache.get("a"));
+        assertArrayEquals(B, cache.get("b"));
+        assertNull(cache.get("c"));
+        assertFalse(readJournal().contains("CLEAN c\n"));
+        assertFalse(readJournal().endsWith("CLEAN c"));
+    }
+
+    @Test
+    public void tornFinalLineIsNotExtendedByLaterAppends() throws IOException {
+        appendJournal("CLEAN c");
+
+        cache = PhotoDiskCache.open(directory, MAX_SIZE);
+        assertTrue(cache.put("d", A));
+        cache.close();
+
+        cache = PhotoDiskCache.open(directory, MAX_SIZE);
+        assertArrayEquals(A, cache.get("a"));
+        assertArrayEquals(A, cache.get("d"));
+    }
+
+    @Test
+    public void dirtyEntryWithoutCleanIsDropped() throws IOException {
+        appendJournal("DIRTY c\n");
+        writeFile("c", new byte[] { 9 });
+
+        cache = PhotoDiskCache.open(directory, MAX_SIZE);
+
+        assertNull(cache.get("c"));
+        assertFalse(new File(directory, "c").exists());
+        assertArrayEquals(A, cache.get("a"));
+        assertArrayEquals(B, cache.get("b"));
+    }
+
+    @Test
+    public void dirtyOverwriteWithoutCleanDropsOldEntry() throws IOException {
+        appendJournal("DIRTY a\n");
+
+        cache = PhotoDiskCache.open(directory, MAX_SIZE);
+
+        assertFalse(cache.contains("a"));
+        assertFalse(new File(directory, "a").exists());
+        assertArrayEquals(B, cache.get("b"));
+        assertEquals(B.length, cache.size());
+    }
+
+    @Test
+    public void leftoverTempFilesAreDeleted() throws IOException {
+        writeFile("a.7.tmp", new byte[] { 9 });
+        writeFile("c.8.tmp", new byte[] { 9 });
+
+        cache = PhotoDiskCache.open(directory, MAX_SIZE);
+
+        assertFalse(new File(directory, "a.7.tmp").exists());
+        assertFalse(new File(directory, "c.8.tmp").exists());
+        assertArrayEquals(A, cache.get("a"));
+        assertArrayEquals(B, cache.get("b"));
+    }
+
+    private void appendJournal(String text) throws IOException {
+        OutputStream output = new FileOutputStream(
+                new File(directory, "journal"), true);
+        try {
+            output.write(text.getBytes(UTF_8));
+        } finally {
+            output.close();
+        }
+    }
+
+    private String readJournal() throws IOException {
+        return new String(Files.readAllBytes(
+                new File(directory, "journal").toPath()), UTF_8);
+    }
+
+    private void writeFile(String name, byte[] data) throws IOException {
+        OutputStream output = new FileOutputStream(new File(directory, name));
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.janja.kit.photo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.net.Uri;
+
+import com.janja.kit.photo.PhotoDownloadRunnable.TaskRunnableDownloadMethods;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class PhotoHttpFetcherTest {
+
+    private static final int BODY_LENGTH = 1024 * 96;
+    private static final int PARTIAL_LENGTH = 1024 * 32;
+    private static final String ETAG = "\"v1\"";
+
+    private final byte[] body = new byte[BODY_LENGTH];
+    private final List<String[]> requests = new ArrayList<String[]>();
+    private TestHttpServer server;
+    private volatile String etag = ETAG;
+    private volatile boolean chunked;
+    private volatile int rangeOffset;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(7).nextBytes(body);
+        server = new TestHttpServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst(
+                        "If-Range");
+                synchronized (requests) {
+                    requests.add(new String[] { range, ifRange });
+                }
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                int start = 0;
+                if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                    start = Integer.parseInt(range.substring(6,
+                            range.indexOf('-')));
+                }
+                if (start >= body.length) {
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes */" + body.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                int status = 200;
+                if (start > 0) {
+                    // A misbehaving server can answer from the wrong offset.
+                    start -= rangeOffset;
+                    status = 206;
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + start + "-" + (body.length - 1) + "/"
+                                    + body.length);
+                }
+                exchange.sendResponseHeaders(status, chunked ? 0
+                        : body.length - start);
+                OutputStream output = exchange.getResponseBody();
+                output.write(body, start, body.length - start);
+                output.close();
+                exchange.close();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void partialContentResumesAfterSavedPrefix() throws Exception {
+        FakeTask task = new FakeTask(Arrays.copyOf(body, PARTIAL_LENGTH));
+
+        assertArrayEquals(body, fetch(task));
+        assertEquals(1, requests.size());
+        assertEquals("bytes=" + PARTIAL_LENGTH + "-", requests.get(0)[0]);
+        assertEquals(ETAG, requests.get(0)[1]);
+        assertFalse(task.discarded);
+    }
+
+    @Test
+    public void partialContentWithoutLengthResumes() throws Exception {
+        chunked = true;
+        FakeTask task = new FakeTask(Arrays.copyOf(body, PARTIAL_LENGTH));
+        task.maxBytes = BODY_LENGTH;
+
+        assertArrayEquals(body, fetch(task));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void ifRangeMismatchTakesWholeBody() throws Exception {
+        etag = "\"v2\"";
+        FakeTask task = new FakeTask(Arrays.copyOf(body, PARTIAL_LENGTH));
+
+        assertArrayEquals(body, fetch(task));
+        assertEquals(1, requests.size());
+        assertTrue(task.discarded);
+        assertNull(task.getPartialBody());
+    }
+
+    @Test
+    public void rangeNotSatisfiableRefetchesWithoutRange() throws Exception {
+        FakeTask task = new FakeTask(Arrays.copyOf(body, BODY_LENGTH));
+
+        assertArrayEquals(body, fetch(task));
+        assertEquals(2, requests.size());
+        assertNull(requests.get(1)[0]);
+        assertNull(requests.get(1)[1]);
+        assertTrue(task.discarded);
+    }
+
+    @Test
+    public void misalignedPartialContentRefetchesWithoutRange()
+            throws Exception {
+        rangeOffset = 1024;
+        FakeTask task = new FakeTask(Arrays.copyOf(body, PARTIAL_LENGTH));
+
+        assertArrayEquals(body, fetch(task));
+        assertEquals(2, requests.size());
+        assertNull(requests.get(1)[0]);
+        assertTrue(task.discarded);
+    }
+
+    private byte[] fetch(FakeTask task) throws Exception {
+        PhotoFetcher.Result result = new PhotoHttpFetcher().fetch(task,
+                server.getURL("/photo.jpg"));
+        return result.getBytes();
+    }
+
+    private static class FakeTask implements TaskRunnableDownloadMethods {
+
+        private final PhotoByteArrayPool pool = new PhotoByteArrayPool(
+                1024 * 16, 16);
+        private byte[] partialBody;
+        private PhotoCacheHeaders partialValidators;
+        private PhotoCacheHeaders cacheHeaders;
+        long maxBytes;
+        boolean discarded;
+
+        FakeTask(byte[] partialBody) {
+            this.partialBody = partialBody;
+            partialValidators = new PhotoCacheHeaders(ETAG, null, 0, false);
+        }
+
+        @Override
+        public Uri getUri() {
+            return null;
+        }
+
+        @Override
+        public void markConnected() {
+        }
+
+        @Override
+        public void markResponseStarted() {
+        }
+
+        @Override
+        public void setCancelHandle(Closeable handle) {
+        }
+
+        @Override
+        public byte[] readFully(InputStream input, int length)
+                throws IOException, InterruptedException {
+            return PhotoSegmentedBuffer.readFully(input, length, pool);
+        }
+
+        @Override
+        public void setDownloadThread(Thread currentThread) {
+        }
+
+        @Override
+        public byte[] getByteBuffer() {
+            return null;
+        }
+
+        @Override
+        public void setByteBuffer(byte[] buffer) {
+        }
+
+        @Override
+        public void setSource(FileDescriptor descriptor, Closeable owner) {
+        }
+
+        @Override
+        public void handleDownloadState(int state) {
+        }
+
+        @Override
+        public PhotoFetcher getFetcher() {
+            return null;
+        }
+
+        @Override
+        public long getMaxPixels() {
+            return 0;
+        }
+
+        @Override
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        @Override
+        public void setLimitExceeded(int limit) {
+        }
+
+        @Override
+        public boolean switchToFallback() {
+            return false;
+        }
+
+        @Override
+        public byte[] getRevalidationBuffer() {
+            return null;
+        }
+
+        @Override
+        public PhotoCacheHeaders getCacheHeaders() {
+            return cacheHeaders;
+        }
+
+        @Override
+        public void setCacheHeaders(PhotoCacheHeaders headers) {
+            cacheHeaders = headers;
+        }
+
+        @Override
+        public byte[] getPartialBody() {
+            return partialBody;
+        }
+
+        @Override
+        public PhotoCacheHeaders getPartialValidators() {
+            return partialValidators;
+        }
+
+        @Override
+        public void savePartialBody(byte[] partialBody,
+                PhotoCacheHeaders validators) {
+        }
+
+        @Override
+        public void discardPartialBody() {
+            partialBody = null;
+            partialValidators = null;
+            discarded = true;
+        }
+
+        @Override
+        public PhotoByteArrayPool getByteArrayPool() {
+            return pool;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public int getPriority() {
+            return 0;
+        }
+
+        @Override
+        public long getSequence() {
+            return 0;
+        }
+    }
+}
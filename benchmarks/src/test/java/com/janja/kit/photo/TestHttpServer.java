@@ -0,0 +1,34 @@
+package com.janja.kit.photo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP server on the loopback interface for tests that need real
+ * responses behind an HttpURLConnection.
+ */
+final class TestHttpServer {
+
+    private final HttpServer server;
+
+    TestHttpServer(HttpHandler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", handler);
+        server.start();
+    }
+
+    URL getURL(String path) throws IOException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(),
+                path);
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+}
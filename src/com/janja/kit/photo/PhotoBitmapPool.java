@@ -0,0 +1,254 @@
+package com.janja.kit.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class PhotoBitmapPool {
+
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final TreeMap<Integer, LinkedList<Bitmap>> sizeBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+    private final HashMap<String, LinkedList<Bitmap>> exactBuckets = new HashMap<String, LinkedList<Bitmap>>();
+    private final LinkedList<Bitmap> pooledBitmaps = new LinkedList<Bitmap>();
+    private final IdentityHashMap<Bitmap, Integer> references = new IdentityHashMap<Bitmap, Integer>();
+    private final boolean byteCountReuse;
+    private int maxSize;
+    private int size;
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    PhotoBitmapPool(int maxSize) {
+        this.maxSize = maxSize;
+        byteCountReuse = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    synchronized Bitmap get(int width, int height, Bitmap.Config config,
+            int sampleSize) {
+        Bitmap bitmap = null;
+        if (byteCountReuse) {
+            int needed = width * height * getBytesPerPixel(config);
+            Integer bucket = sizeBuckets.ceilingKey(needed);
+            if (bucket != null && bucket <= needed * MAX_SIZE_MULTIPLE) {
+                bitmap = takeFrom(sizeBuckets.get(bucket));
+                if (sizeBuckets.get(bucket).isEmpty()) {
+                    sizeBuckets.remove(bucket);
+                }
+            }
+        } else if (sampleSize <= 1) {
+            String bucket = getExactKey(width, height, config);
+            LinkedList<Bitmap> bitmaps = exactBuckets.get(bucket);
+            if (bitmaps != null) {
+                bitmap = takeFrom(bitmaps);
+                if (bitmaps.isEmpty()) {
+                    exactBuckets.remove(bucket);
+                }
+            }
+        }
+
+        if (bitmap == null) {
+            missCount++;
+        } else {
+            hitCount++;
+            pooledBitmaps.remove(bitmap);
+            size -= getSize(bitmap);
+        }
+        return bitmap;
+    }
+
+    public Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config, 1);
+        if (bitmap != null && byteCountReuse) {
+            try {
+                bitmap.reconfigure(width, height, config);
+            } catch (IllegalArgumentException e) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+        }
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || references.containsKey(bitmap)) {
+            return;
+        }
+        int bitmapSize = getSize(bitmap);
+        if (bitmapSize > maxSize) {
+            return;
+        }
+
+        LinkedList<Bitmap> bitmaps;
+        if (byteCountReuse) {
+            bitmaps = sizeBuckets.get(bitmapSize);
+            if (bitmaps == null) {
+                bitmaps = new LinkedList<Bitmap>();
+                sizeBuckets.put(bitmapSize, bitmaps);
+            }
+        } else {
+            String bucket = getExactKey(bitmap.getWidth(), bitmap.getHeight(),
+                    bitmap.getConfig());
+            bitmaps = exactBuckets.get(bucket);
+            if (bitmaps == null) {
+                bitmaps = new LinkedList<Bitmap>();
+                exactBuckets.put(bucket, bitmaps);
+            }
+        }
+        if (bitmaps.contains(bitmap)) {
+            return;
+        }
+        bitmaps.addLast(bitmap);
+        pooledBitmaps.addLast(bitmap);
+        size += bitmapSize;
+        putCount++;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Keeps bitmap out of reuse until a matching {@link #release(Bitmap)}.
+     * Targets that hold on to a delivered bitmap must take a reference.
+     */
+    public synchronized void acquire(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        Integer count = references.get(bitmap);
+        references.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    public void release(Bitmap bitmap) {
+        synchronized (this) {
+            Integer count = references.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                references.put(bitmap, count - 1);
+                return;
+            }
+            references.remove(bitmap);
+        }
+        put(bitmap);
+    }
+
+    synchronized void trimToSize(int targetSize) {
+        Iterator<Bitmap> i = pooledBitmaps.iterator();
+        while (size > targetSize && i.hasNext()) {
+            Bitmap eldest = i.next();
+            i.remove();
+            removeFromBucket(eldest);
+            size -= getSize(eldest);
+            evictionCount++;
+            eldest.recycle();
+        }
+    }
+
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+
+    synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    public synchronized int putCount() {
+        return putCount;
+    }
+
+    public synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized float getReuseRate() {
+        int requests = hitCount + missCount;
+        return requests == 0 ? 0f : (float) hitCount / requests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "PhotoBitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,reuseRate=%d%%]",
+                size, maxSize, hitCount, missCount,
+                (int) (getReuseRate() * 100));
+    }
+
+    private Bitmap takeFrom(LinkedList<Bitmap> bitmaps) {
+        while (!bitmaps.isEmpty()) {
+            Bitmap bitmap = bitmaps.removeFirst();
+            if (!bitmap.isRecycled()) {
+                return bitmap;
+            }
+            pooledBitmaps.remove(bitmap);
+        }
+        return null;
+    }
+
+    private void removeFromBucket(Bitmap bitmap) {
+        Map<?, LinkedList<Bitmap>> buckets = byteCountReuse ? sizeBuckets
+                : exactBuckets;
+        Iterator<? extends Map.Entry<?, LinkedList<Bitmap>>> i = buckets
+                .entrySet().iterator();
+        while (i.hasNext()) {
+            LinkedList<Bitmap> bitmaps = i.next().getValue();
+            if (bitmaps.remove(bitmap)) {
+                if (bitmaps.isEmpty()) {
+                    i.remove();
+                }
+                return;
+            }
+        }
+    }
+
+    private int getSize(Bitmap bitmap) {
+        if (byteCountReuse) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static String getExactKey(int width, int height,
+            Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565
+                || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
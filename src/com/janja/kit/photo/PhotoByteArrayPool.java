@@ -0,0 +1,62 @@
+package com.janja.kit.photo;
+
+import java.util.ArrayDeque;
+
+class PhotoByteArrayPool {
+
+    private final ArrayDeque<byte[]> segments = new ArrayDeque<byte[]>();
+    private final int segmentSize;
+    private int maxSegments;
+    private int hitCount;
+    private int missCount;
+
+    PhotoByteArrayPool(int segmentSize, int maxSegments) {
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    synchronized byte[] get() {
+        byte[] segment = segments.pollLast();
+        if (segment == null) {
+            missCount++;
+            return new byte[segmentSize];
+        }
+        hitCount++;
+        return segment;
+    }
+
+    synchronized void put(byte[] segment) {
+        if (segment == null || segment.length != segmentSize
+                || segments.size() >= maxSegments) {
+            return;
+        }
+        segments.addLast(segment);
+    }
+
+    synchronized void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+        while (segments.size() > maxSegments) {
+            segments.pollFirst();
+        }
+    }
+
+    synchronized void clear() {
+        segments.clear();
+    }
+
+    synchronized int size() {
+        return segments.size() * segmentSize;
+    }
+
+    synchronized int hitCount() {
+        return hitCount;
+    }
+
+    synchronized int missCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,137 @@
+package com.janja.kit.photo;
+
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+
+class PhotoCacheHeaders {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MAX_HEURISTIC_FRESHNESS = 24 * 60 * 60 * 1000L;
+
+    private final String etag;
+    private final String lastModified;
+    private final long expiresAt;
+    private final boolean noStore;
+
+    PhotoCacheHeaders(String etag, String lastModified, long expiresAt,
+            boolean noStore) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.expiresAt = expiresAt;
+        this.noStore = noStore;
+    }
+
+    static PhotoCacheHeaders fromConnection(HttpURLConnection connection,
+            long now) {
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        boolean noStore = false;
+        boolean noCache = false;
+        long maxAgeSeconds = -1;
+
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-store")) {
+                    noStore = true;
+                } else if (directive.startsWith("no-cache")) {
+                    noCache = true;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        maxAgeSeconds = Long.parseLong(directive.substring(8)
+                                .replace("\"", ""));
+                    } catch (NumberFormatException e) {
+                        maxAgeSeconds = 0;
+                    }
+                }
+            }
+        }
+
+        long expiresAt = now;
+        if (noCache) {
+            expiresAt = now;
+        } else if (maxAgeSeconds >= 0) {
+            expiresAt = now + maxAgeSeconds * 1000;
+        } else {
+            long served = connection.getDate();
+            if (served <= 0) {
+                served = now;
+            }
+            long expires = connection.getExpiration();
+            long modified = connection.getLastModified();
+            if (expires > 0) {
+                expiresAt = now + Math.max(0, expires - served);
+            } else if (modified > 0 && modified < served) {
+                expiresAt = now
+                        + Math.min(MAX_HEURISTIC_FRESHNESS,
+                                (served - modified) / 10);
+            }
+        }
+        return new PhotoCacheHeaders(etag, lastModified, expiresAt, noStore);
+    }
+
+    static PhotoCacheHeaders decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        String[] lines = new String(data, UTF_8).split("\n", -1);
+        if (lines.length < 4) {
+            return null;
+        }
+        try {
+            return new PhotoCacheHeaders(emptyToNull(lines[0]),
+                    emptyToNull(lines[1]), Long.parseLong(lines[2]),
+                    Boolean.parseBoolean(lines[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    byte[] encode() {
+        return ((etag == null ? "" : etag) + '\n'
+                + (lastModified == null ? "" : lastModified) + '\n'
+                + expiresAt + '\n' + noStore).getBytes(UTF_8);
+    }
+
+    PhotoCacheHeaders revalidated(PhotoCacheHeaders response) {
+        return new PhotoCacheHeaders(response.etag != null ? response.etag
+                : etag, response.lastModified != null ? response.lastModified
+                : lastModified, response.expiresAt, response.noStore);
+    }
+
+    boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    String getRangeValidator() {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+    boolean isNoStore() {
+        return noStore;
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    String getLastModified() {
+        return lastModified;
+    }
+
+    long getExpiresAt() {
+        return expiresAt;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+}
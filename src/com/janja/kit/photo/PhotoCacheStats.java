@@ -0,0 +1,55 @@
+package com.janja.kit.photo;
+
+public class PhotoCacheStats {
+
+    private final int bitmapHitCount;
+    private final int bitmapMissCount;
+    private final int memoryHitCount;
+    private final int memoryMissCount;
+    private final int diskHitCount;
+    private final int diskMissCount;
+
+    PhotoCacheStats(int bitmapHitCount, int bitmapMissCount,
+            int memoryHitCount, int memoryMissCount, int diskHitCount,
+            int diskMissCount) {
+        this.bitmapHitCount = bitmapHitCount;
+        this.bitmapMissCount = bitmapMissCount;
+        this.memoryHitCount = memoryHitCount;
+        this.memoryMissCount = memoryMissCount;
+        this.diskHitCount = diskHitCount;
+        this.diskMissCount = diskMissCount;
+    }
+
+    public int getBitmapHitCount() {
+        return bitmapHitCount;
+    }
+
+    public int getBitmapMissCount() {
+        return bitmapMissCount;
+    }
+
+    public int getMemoryHitCount() {
+        return memoryHitCount;
+    }
+
+    public int getMemoryMissCount() {
+        return memoryMissCount;
+    }
+
+    public int getDiskHitCount() {
+        return diskHitCount;
+    }
+
+    public int getDiskMissCount() {
+        return diskMissCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PhotoCacheStats[bitmap=" + bitmapHitCount + "/"
+                + (bitmapHitCount + bitmapMissCount) + ", memory="
+                + memoryHitCount + "/" + (memoryHitCount + memoryMissCount)
+                + ", disk=" + diskHitCount + "/"
+                + (diskHitCount + diskMissCount) + "]";
+    }
+}
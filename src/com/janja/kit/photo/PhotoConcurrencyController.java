@@ -0,0 +1,148 @@
+package com.janja.kit.photo;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+class PhotoConcurrencyController {
+
+    private static final String LOG_TAG = "PhotoConcurrency";
+    private static final int WINDOW_SAMPLES = 16;
+    private static final float LATENCY_TOLERANCE = 2f;
+    private static final float BASELINE_DRIFT = 1.1f;
+
+    private final Stage download;
+    private final Stage decode;
+    private volatile boolean enabled = true;
+
+    PhotoConcurrencyController(ThreadPoolExecutor downloadPool,
+            int minDownloads, int maxDownloads, ThreadPoolExecutor decodePool,
+            int minDecodes, int maxDecodes) {
+        download = new Stage("download", downloadPool, minDownloads,
+                maxDownloads);
+        decode = new Stage("decode", decodePool, minDecodes, maxDecodes);
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean recordDownload(long latencyMillis, long bytes, boolean failed,
+            int backlog) {
+        return enabled && download.record(latencyMillis, bytes, failed, backlog);
+    }
+
+    boolean recordDecode(long decodeMillis, int backlog) {
+        return enabled && decode.record(decodeMillis, 0, false, backlog);
+    }
+
+    void setDownloadBounds(int min, int max) {
+        download.setBounds(min, max);
+    }
+
+    void setDecodeBounds(int min, int max) {
+        decode.setBounds(min, max);
+    }
+
+    private static class Stage {
+
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private int min;
+        private int max;
+        private int samples;
+        private int failures;
+        private long totalMillis;
+        private long totalBytes;
+        private long windowStart = SystemClock.uptimeMillis();
+        private float baselineMillis;
+        private float lastThroughput;
+
+        Stage(String name, ThreadPoolExecutor executor, int min, int max) {
+            this.name = name;
+            this.executor = executor;
+            setBounds(min, max);
+        }
+
+        synchronized void setBounds(int min, int max) {
+            if (min < 1 || max < min) {
+                throw new IllegalArgumentException("Invalid " + name
+                        + " bounds: " + min + ".." + max);
+            }
+            this.min = min;
+            this.max = max;
+            int size = executor.getMaximumPoolSize();
+            if (size < min || size > max) {
+                resize(Math.min(max, Math.max(min, size)), "bounds changed");
+            }
+        }
+
+        synchronized boolean record(long millis, long bytes, boolean failed,
+                int backlog) {
+            samples++;
+            if (failed) {
+                failures++;
+            } else {
+                totalMillis += millis;
+                totalBytes += bytes;
+            }
+            if (samples < WINDOW_SAMPLES) {
+                return false;
+            }
+
+            long now = SystemClock.uptimeMillis();
+            int succeeded = samples - failures;
+            float averageMillis = succeeded == 0 ? 0 : (float) totalMillis
+                    / succeeded;
+            long completed = totalBytes > 0 ? totalBytes : succeeded;
+            float throughput = completed * 1000f
+                    / Math.max(1, now - windowStart);
+            int size = executor.getMaximumPoolSize();
+            boolean changed = false;
+
+            if (baselineMillis == 0 || averageMillis < baselineMillis) {
+                baselineMillis = averageMillis;
+            }
+            if (failures > succeeded
+                    || (succeeded > 0 && averageMillis > baselineMillis
+                            * LATENCY_TOLERANCE)) {
+                if (size > min) {
+                    changed = resize(Math.max(min, size / 2), String.format(
+                            "latency %.0fms vs baseline %.0fms, %d/%d failed",
+                            averageMillis, baselineMillis, failures, samples));
+                }
+            } else if (backlog > 0 && size < max
+                    && throughput >= lastThroughput) {
+                changed = resize(size + 1, String.format(
+                        "backlog %d, throughput %.1f/s", backlog, throughput));
+            }
+
+            baselineMillis *= BASELINE_DRIFT;
+            lastThroughput = throughput;
+            samples = 0;
+            failures = 0;
+            totalMillis = 0;
+            totalBytes = 0;
+            windowStart = now;
+            return changed;
+        }
+
+        private boolean resize(int size, String reason) {
+            int current = executor.getMaximumPoolSize();
+            if (size == current) {
+                return false;
+            }
+            if (size > current) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+            Log.i(LOG_TAG, name + " pool " + current + " -> " + size + ": "
+                    + reason);
+            return true;
+        }
+    }
+}
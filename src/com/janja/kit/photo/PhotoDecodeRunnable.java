@@ -4,7 +4,11 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 
-public class PhotoDecodeRunnable implements Runnable {
+import java.io.FileDescriptor;
+import java.util.List;
+
+public class PhotoDecodeRunnable implements Runnable,
+        PhotoPriorityQueue.Prioritized {
 
     private static final int NUMBER_OF_DECODE_TRIES = 2;
     private static final long SLEEP_TIME_MILLISECONDS = 250;
@@ -20,26 +24,55 @@ public class PhotoDecodeRunnable implements Runnable {
 
         void setImageDecodeThread(Thread currentThread);
 
+        void setDecodeOptions(BitmapFactory.Options options);
+
         byte[] getByteBuffer();
 
+        FileDescriptor getFileDescriptor();
+
         void handleDecodeState(int state);
 
         int getTargetWidth();
 
         int getTargetHeight();
 
+        Bitmap.Config getBitmapConfig();
+
+        PhotoBitmapPool getBitmapPool();
+
+        List<PhotoTransformation> getTransformations();
+
+        long getMaxPixels();
+
+        void setLimitExceeded(int limit);
+
         void setImage(Bitmap image);
+
+        int getPriority();
+
+        long getSequence();
     }
 
     public PhotoDecodeRunnable(TaskRunnableDecodeMethods downloadTask) {
         mPhotoTask = downloadTask;
     }
 
+    @Override
+    public int getPriority() {
+        return mPhotoTask.getPriority();
+    }
+
+    @Override
+    public long getSequence() {
+        return mPhotoTask.getSequence();
+    }
+
     @Override
     public void run() {
         mPhotoTask.setImageDecodeThread(Thread.currentThread());
 
         byte[] imageBuffer = mPhotoTask.getByteBuffer();
+        FileDescriptor imageDescriptor = mPhotoTask.getFileDescriptor();
 
         Bitmap returnBitmap = null;
 
@@ -48,6 +81,8 @@ public class PhotoDecodeRunnable implements Runnable {
             mPhotoTask.handleDecodeState(DECODE_STATE_STARTED);
 
             BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
+            bitmapOptions.inPreferredConfig = mPhotoTask.getBitmapConfig();
+            mPhotoTask.setDecodeOptions(bitmapOptions);
 
             int targetWidth = mPhotoTask.getTargetWidth();
             int targetHeight = mPhotoTask.getTargetHeight();
@@ -58,13 +93,24 @@ public class PhotoDecodeRunnable implements Runnable {
             }
             bitmapOptions.inJustDecodeBounds = true;
 
-            BitmapFactory.decodeByteArray(imageBuffer, 0, imageBuffer.length,
-                    bitmapOptions);
+            decode(imageBuffer, imageDescriptor, bitmapOptions);
 
-            int hScale = bitmapOptions.outHeight / targetHeight;
-            int wScale = bitmapOptions.outWidth / targetWidth;
+            long maxPixels = mPhotoTask.getMaxPixels();
+            if (maxPixels > 0
+                    && (long) bitmapOptions.outWidth * bitmapOptions.outHeight > maxPixels) {
+                mPhotoTask.setLimitExceeded(PhotoManager.LIMIT_PIXELS);
+                Log.w(LOG_TAG, "Photo is " + bitmapOptions.outWidth + "x"
+                        + bitmapOptions.outHeight + ", over the " + maxPixels
+                        + " pixel limit");
+                return;
+            }
 
-            int sampleSize = Math.max(hScale, wScale);
+            int sampleSize = 1;
+            if (targetWidth > 0 && targetHeight > 0) {
+                int hScale = bitmapOptions.outHeight / targetHeight;
+                int wScale = bitmapOptions.outWidth / targetWidth;
+                sampleSize = Math.max(hScale, wScale);
+            }
 
             if (sampleSize > 1) {
                 bitmapOptions.inSampleSize = sampleSize;
@@ -75,14 +121,41 @@ public class PhotoDecodeRunnable implements Runnable {
             }
 
             bitmapOptions.inJustDecodeBounds = false;
+            bitmapOptions.inMutable = true;
+
+            PhotoBitmapPool bitmapPool = mPhotoTask.getBitmapPool();
+            if (bitmapPool != null) {
+                int scale = Integer.highestOneBit(Math.max(1, sampleSize));
+                bitmapOptions.inBitmap = bitmapPool.get(
+                        (bitmapOptions.outWidth + scale - 1) / scale,
+                        (bitmapOptions.outHeight + scale - 1) / scale,
+                        bitmapOptions.inPreferredConfig, scale);
+            }
 
-            for (int i = 0; i < NUMBER_OF_DECODE_TRIES; i++) {
+            for (int i = 0; i < NUMBER_OF_DECODE_TRIES && returnBitmap == null; i++) {
                 try {
-                    returnBitmap = BitmapFactory.decodeByteArray(imageBuffer,
-                            0, imageBuffer.length, bitmapOptions);
+                    returnBitmap = decode(imageBuffer, imageDescriptor,
+                            bitmapOptions);
+                    if (returnBitmap == null && bitmapOptions.inBitmap != null) {
+                        bitmapPool.put(bitmapOptions.inBitmap);
+                        bitmapOptions.inBitmap = null;
+                    }
+                    if (bitmapOptions.mCancel) {
+                        break;
+                    }
+                } catch (IllegalArgumentException e) {
+                    if (bitmapOptions.inBitmap == null) {
+                        break;
+                    }
+                    Log.w(LOG_TAG, "Unable to reuse bitmap, decoding into a new one.");
+                    bitmapPool.put(bitmapOptions.inBitmap);
+                    bitmapOptions.inBitmap = null;
                 } catch (Throwable e) {
                     Log.e(LOG_TAG, "Out of memory in decode stage. Throttling.");
 
+                    if (bitmapPool != null) {
+                        bitmapPool.evictAll();
+                    }
                     java.lang.System.gc();
 
                     if (Thread.interrupted()) {
@@ -98,7 +171,16 @@ public class PhotoDecodeRunnable implements Runnable {
                 }
             }
 
+            if (returnBitmap != null) {
+                returnBitmap = transform(returnBitmap, bitmapPool);
+            }
+
         } finally {
+            mPhotoTask.setDecodeOptions(null);
+            // Cleared before the hand-off, after which the task may be
+            // recycled and started again on another thread.
+            mPhotoTask.setImageDecodeThread(null);
+            Thread.interrupted();
             if (null == returnBitmap) {
 
                 mPhotoTask.handleDecodeState(DECODE_STATE_FAILED);
@@ -106,13 +188,54 @@ public class PhotoDecodeRunnable implements Runnable {
                 Log.e(LOG_TAG, "Download failed in PhotoDecodeRunnable");
 
             } else {
+                PhotoBitmapPool bitmapPool = mPhotoTask.getBitmapPool();
+                if (bitmapPool != null) {
+                    bitmapPool.acquire(returnBitmap);
+                }
                 mPhotoTask.setImage(returnBitmap);
                 mPhotoTask.handleDecodeState(DECODE_STATE_COMPLETED);
             }
+        }
 
-            mPhotoTask.setImageDecodeThread(null);
-            Thread.interrupted();
+    }
+
+    private static Bitmap decode(byte[] imageBuffer,
+            FileDescriptor imageDescriptor, BitmapFactory.Options options) {
+        if (null != imageBuffer) {
+            return BitmapFactory.decodeByteArray(imageBuffer, 0,
+                    imageBuffer.length, options);
+        }
+        if (null != imageDescriptor) {
+            return BitmapFactory.decodeFileDescriptor(imageDescriptor, null,
+                    options);
         }
+        return null;
+    }
 
+    private Bitmap transform(Bitmap bitmap, PhotoBitmapPool bitmapPool) {
+        List<PhotoTransformation> transformations = mPhotoTask
+                .getTransformations();
+        if (transformations == null) {
+            return bitmap;
+        }
+        for (PhotoTransformation transformation : transformations) {
+            Bitmap result = null;
+            if (!Thread.currentThread().isInterrupted()) {
+                try {
+                    result = transformation.transform(bitmap, bitmapPool);
+                } catch (Throwable e) {
+                    Log.e(LOG_TAG, "Transformation " + transformation.getKey()
+                            + " failed", e);
+                }
+            }
+            if (result != bitmap && bitmapPool != null) {
+                bitmapPool.put(bitmap);
+            }
+            if (result == null) {
+                return null;
+            }
+            bitmap = result;
+        }
+        return bitmap;
     }
 }
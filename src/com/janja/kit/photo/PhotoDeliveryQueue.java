@@ -0,0 +1,117 @@
+package com.janja.kit.photo;
+
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+class PhotoDeliveryQueue implements Choreographer.FrameCallback, Runnable {
+
+    interface Receiver {
+        void deliver(PhotoTask photoTask, int state);
+    }
+
+    private static final class Delivery {
+        final PhotoTask photoTask;
+        final int generation;
+        int state;
+        boolean superseded;
+
+        Delivery(PhotoTask photoTask, int generation, int state) {
+            this.photoTask = photoTask;
+            this.generation = generation;
+            this.state = state;
+        }
+    }
+
+    private final Handler handler;
+    private final Receiver receiver;
+    private final ArrayDeque<Delivery> pending = new ArrayDeque<Delivery>();
+    private final Map<PhotoTask, Delivery> pendingStatus = new IdentityHashMap<PhotoTask, Delivery>();
+    private boolean scheduled;
+    private volatile long frameBudgetNanos;
+    private volatile boolean statusUpdatesEnabled = true;
+
+    PhotoDeliveryQueue(Handler handler, Receiver receiver, long frameBudgetNanos) {
+        this.handler = handler;
+        this.receiver = receiver;
+        this.frameBudgetNanos = frameBudgetNanos;
+    }
+
+    void setFrameBudget(long frameBudgetNanos) {
+        this.frameBudgetNanos = frameBudgetNanos;
+    }
+
+    void setStatusUpdatesEnabled(boolean enabled) {
+        statusUpdatesEnabled = enabled;
+    }
+
+    static boolean isFinalState(int state) {
+        return state == PhotoManager.TASK_COMPLETE
+                || state == PhotoManager.DOWNLOAD_FAILED
+                || state == PhotoManager.TASK_DROPPED;
+    }
+
+    void post(PhotoTask photoTask, int state) {
+        boolean finalState = isFinalState(state);
+        if (!finalState && !statusUpdatesEnabled) {
+            return;
+        }
+        int generation = photoTask.getGeneration();
+        synchronized (this) {
+            Delivery status = pendingStatus.get(photoTask);
+            if (status != null) {
+                if (!finalState && status.generation == generation) {
+                    status.state = state;
+                    return;
+                }
+                status.superseded = true;
+                pendingStatus.remove(photoTask);
+            }
+            Delivery delivery = new Delivery(photoTask, generation, state);
+            pending.addLast(delivery);
+            if (!finalState) {
+                pendingStatus.put(photoTask, delivery);
+            }
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        handler.post(this);
+    }
+
+    @Override
+    public void run() {
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long deadline = System.nanoTime() + frameBudgetNanos;
+        while (true) {
+            Delivery delivery;
+            synchronized (this) {
+                delivery = pending.pollFirst();
+                if (delivery == null) {
+                    scheduled = false;
+                    return;
+                }
+                if (pendingStatus.get(delivery.photoTask) == delivery) {
+                    pendingStatus.remove(delivery.photoTask);
+                }
+            }
+            // A delivery outlived by a recycle belongs to an earlier request.
+            if (!delivery.superseded
+                    && delivery.generation == delivery.photoTask.getGeneration()) {
+                receiver.deliver(delivery.photoTask, delivery.state);
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
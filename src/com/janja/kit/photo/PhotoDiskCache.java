@@ -0,0 +1,563 @@
+package com.janja.kit.photo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+class PhotoDiskCache {
+
+    private static final String LOG_TAG = "PhotoDiskCache";
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String JOURNAL_FILE_BACKUP = "journal.bkp";
+    private static final String MAGIC = "com.janja.kit.photo.PhotoDiskCache";
+    private static final String VERSION = "1";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final String PARTIAL_SUFFIX = ".partial";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final File journalFile;
+    private final File journalFileTemp;
+    private final File journalFileBackup;
+    private final long maxSize;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(
+            0, 0.75f, true);
+    private long size;
+    private int redundantOpCount;
+    private long tempSequence;
+    private int hitCount;
+    private int missCount;
+    private Writer journalWriter;
+
+    private PhotoDiskCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        journalFile = new File(directory, JOURNAL_FILE);
+        journalFileTemp = new File(directory, JOURNAL_FILE_TEMP);
+        journalFileBackup = new File(directory, JOURNAL_FILE_BACKUP);
+    }
+
+    static PhotoDiskCache open(File directory, long maxSize)
+            throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        PhotoDiskCache cache = new PhotoDiskCache(directory, maxSize);
+
+        if (cache.journalFileBackup.exists()) {
+            if (cache.journalFile.exists()) {
+                cache.journalFileBackup.delete();
+            } else {
+                cache.journalFileBackup.renameTo(cache.journalFile);
+            }
+        }
+
+        if (cache.journalFile.exists()) {
+            try {
+                boolean intact = cache.readJournal();
+                cache.processJournal();
+                if (intact) {
+                    cache.journalWriter = new BufferedWriter(
+                            new OutputStreamWriter(new FileOutputStream(
+                                    cache.journalFile, true), UTF_8));
+                } else {
+                    cache.rebuildJournal();
+                }
+                return cache;
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Journal is corrupt, rebuilding cache", e);
+                cache.deleteContents();
+                cache.entries.clear();
+                cache.size = 0;
+            }
+        }
+
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    static String hashKey(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(source.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(source.hashCode() & 0xffffffffL);
+        }
+    }
+
+    private boolean readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), UTF_8));
+        try {
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            String blank = reader.readLine();
+            if (!MAGIC.equals(magic) || !VERSION.equals(version)
+                    || !"".equals(blank)) {
+                throw new IOException("Unexpected journal header: [" + magic
+                        + ", " + version + ", " + blank + "]");
+            }
+
+            Map<String, Boolean> dirty = new LinkedHashMap<String, Boolean>();
+            int lineCount = 0;
+            boolean intact = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!readJournalLine(line, dirty)) {
+                    // A torn final line is what a crash mid-append leaves behind.
+                    intact = false;
+                    break;
+                }
+                lineCount++;
+            }
+            for (String key : dirty.keySet()) {
+                entries.remove(key);
+                deleteIfExists(getEntryFile(key));
+            }
+            redundantOpCount = lineCount - entries.size();
+            return intact;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private boolean readJournalLine(String line, Map<String, Boolean> dirty) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            return false;
+        }
+        String op = parts[0];
+        String key = parts[1];
+
+        if (CLEAN.equals(op) && parts.length == 3) {
+            try {
+                entries.put(key, Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            dirty.remove(key);
+        } else if (DIRTY.equals(op) && parts.length == 2) {
+            dirty.put(key, Boolean.TRUE);
+        } else if (REMOVE.equals(op) && parts.length == 2) {
+            entries.remove(key);
+            dirty.remove(key);
+        } else if (READ.equals(op) && parts.length == 2) {
+            entries.get(key);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void processJournal() {
+        size = 0;
+        Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String, Long> entry = i.next();
+            File file = getEntryFile(entry.getKey());
+            if (file.exists() && file.length() == entry.getValue()) {
+                size += entry.getValue();
+            } else {
+                deleteIfExists(file);
+                i.remove();
+            }
+        }
+        i = entries.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String, Long> entry = i.next();
+            if (isMetadataKey(entry.getKey())
+                    && !entries.containsKey(getCompanionKey(entry.getKey()))) {
+                deleteIfExists(getEntryFile(entry.getKey()));
+                size -= entry.getValue();
+                i.remove();
+            }
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)
+                        && !file.equals(journalFileTemp)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private synchronized void rebuildJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journalFileTemp), UTF_8));
+        try {
+            writer.write(MAGIC);
+            writer.write("\n");
+            writer.write(VERSION);
+            writer.write("\n");
+            writer.write("\n");
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' '
+                        + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (journalFile.exists()) {
+            deleteIfExists(journalFileBackup);
+            if (!journalFile.renameTo(journalFileBackup)) {
+                throw new IOException("Unable to back up journal");
+            }
+        }
+        if (!journalFileTemp.renameTo(journalFile)) {
+            throw new IOException("Unable to install journal");
+        }
+        journalFileBackup.delete();
+
+        journalWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journalFile, true), UTF_8));
+        redundantOpCount = 0;
+    }
+
+    byte[] get(String key) {
+        return read(key, true);
+    }
+
+    byte[] getMetadata(String key) {
+        return read(key + METADATA_SUFFIX, false);
+    }
+
+    boolean putMetadata(String key, byte[] metadata) {
+        return put(key + METADATA_SUFFIX, metadata);
+    }
+
+    byte[] getPartial(String key) {
+        return read(key + PARTIAL_SUFFIX, false);
+    }
+
+    byte[] getPartialMetadata(String key) {
+        return getMetadata(key + PARTIAL_SUFFIX);
+    }
+
+    boolean putPartial(String key, byte[] data, byte[] metadata) {
+        return put(key + PARTIAL_SUFFIX, data)
+                && putMetadata(key + PARTIAL_SUFFIX, metadata);
+    }
+
+    void removePartial(String key) {
+        remove(key + PARTIAL_SUFFIX);
+    }
+
+    private static boolean isMetadataKey(String key) {
+        return key.endsWith(METADATA_SUFFIX);
+    }
+
+    /**
+     * The metadata key of a body, or the body key of metadata. The two are
+     * read, evicted and removed together.
+     */
+    private static String getCompanionKey(String key) {
+        if (isMetadataKey(key)) {
+            return key.substring(0, key.length() - METADATA_SUFFIX.length());
+        }
+        return key + METADATA_SUFFIX;
+    }
+
+    /**
+     * Opens the entry under the lock and reads it after releasing it. put()
+     * renames a new file over the entry and remove() deletes it, but the
+     * open stream keeps the file it was opened on, whose length is the one
+     * looked up alongside it.
+     */
+    private byte[] read(String key, boolean countStats) {
+        Long length;
+        FileInputStream input;
+        synchronized (this) {
+            length = entries.get(key);
+            if (length == null || journalWriter == null) {
+                if (countStats) {
+                    missCount++;
+                }
+                return null;
+            }
+            try {
+                input = new FileInputStream(getEntryFile(key));
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Dropping unreadable entry " + key, e);
+                remove(key);
+                return null;
+            }
+            if (countStats) {
+                hitCount++;
+            }
+            redundantOpCount++;
+            appendJournal(READ + ' ' + key + '\n');
+            String metadataKey = getCompanionKey(key);
+            if (!isMetadataKey(key) && entries.get(metadataKey) != null) {
+                redundantOpCount++;
+                appendJournal(READ + ' ' + metadataKey + '\n');
+            }
+        }
+
+        try {
+            byte[] data = new byte[length.intValue()];
+            int offset = 0;
+            while (offset < data.length) {
+                int readResult = input.read(data, offset, data.length - offset);
+                if (readResult < 0) {
+                    throw new EOFException();
+                }
+                offset += readResult;
+            }
+            return data;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable entry " + key, e);
+            removeIfUnchanged(key, length);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Drops an entry that failed to read unless a put() has replaced it
+     * since it was opened.
+     */
+    private synchronized void removeIfUnchanged(String key, Long length) {
+        if (length.equals(entries.get(key))) {
+            remove(key);
+        }
+    }
+
+    boolean put(String key, byte[] data) {
+        File tempFile;
+        boolean metadata = isMetadataKey(key);
+        synchronized (this) {
+            if (journalWriter == null || data.length > maxSize
+                    || (metadata && !entries.containsKey(getCompanionKey(key)))) {
+                return false;
+            }
+            tempFile = new File(directory, key + "." + (tempSequence++)
+                    + TEMP_SUFFIX);
+            appendJournal(DIRTY + ' ' + key + '\n');
+        }
+
+        FileOutputStream output = null;
+        boolean written = false;
+        try {
+            output = new FileOutputStream(tempFile);
+            output.write(data);
+            output.getFD().sync();
+            written = true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write entry " + key, e);
+        } finally {
+            closeQuietly(output);
+        }
+
+        synchronized (this) {
+            File file = getEntryFile(key);
+            if (!written || journalWriter == null
+                    || (metadata && !entries.containsKey(getCompanionKey(key)))
+                    || !tempFile.renameTo(file)) {
+                tempFile.delete();
+                Long previous = entries.remove(key);
+                if (previous != null) {
+                    size -= previous;
+                    deleteIfExists(file);
+                }
+                redundantOpCount++;
+                appendJournal(REMOVE + ' ' + key + '\n');
+                return false;
+            }
+
+            Long previous = entries.put(key, (long) data.length);
+            if (previous != null) {
+                size -= previous;
+            }
+            size += data.length;
+            redundantOpCount++;
+            appendJournal(CLEAN + ' ' + key + ' ' + data.length + '\n');
+            if (!metadata) {
+                // Metadata describes the body it was written with.
+                removeEntry(getCompanionKey(key));
+            }
+            trimToSize();
+            compactIfNeeded();
+        }
+        return true;
+    }
+
+    /**
+     * Removes the entry together with its metadata.
+     */
+    synchronized boolean remove(String key) {
+        boolean removed = removeEntry(key);
+        removed |= removeEntry(getCompanionKey(key));
+        compactIfNeeded();
+        return removed;
+    }
+
+    private boolean removeEntry(String key) {
+        Long length = entries.remove(key);
+        if (length == null) {
+            return false;
+        }
+        deleteIfExists(getEntryFile(key));
+        size -= length;
+        redundantOpCount++;
+        appendJournal(REMOVE + ' ' + key + '\n');
+        return true;
+    }
+
+    synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    long maxSize() {
+        return maxSize;
+    }
+
+    synchronized int hitCount() {
+        return hitCount;
+    }
+
+    synchronized int missCount() {
+        return missCount;
+    }
+
+    synchronized void flush() throws IOException {
+        if (journalWriter != null) {
+            trimToSize();
+            journalWriter.flush();
+        }
+    }
+
+    synchronized void close() throws IOException {
+        if (journalWriter == null) {
+            return;
+        }
+        trimToSize();
+        journalWriter.close();
+        journalWriter = null;
+    }
+
+    synchronized void clear() throws IOException {
+        close();
+        deleteContents();
+        entries.clear();
+        size = 0;
+        rebuildJournal();
+    }
+
+    private void trimToSize() {
+        while (size > maxSize && !entries.isEmpty()) {
+            String eldest = entries.keySet().iterator().next();
+            removeEntry(eldest);
+            removeEntry(getCompanionKey(eldest));
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && redundantOpCount >= entries.size()) {
+            try {
+                rebuildJournal();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Unable to compact journal", e);
+            }
+        }
+    }
+
+    private void appendJournal(String line) {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.write(line);
+            journalWriter.flush();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to append to journal", e);
+        }
+    }
+
+    private File getEntryFile(String key) {
+        return new File(directory, key);
+    }
+
+    private void deleteContents() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> journalFiles = new ArrayList<File>();
+        journalFiles.add(journalFile);
+        journalFiles.add(journalFileTemp);
+        journalFiles.add(journalFileBackup);
+        for (File file : files) {
+            if (!journalFiles.contains(file)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Unable to delete " + file);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
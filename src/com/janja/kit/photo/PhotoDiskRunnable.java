@@ -0,0 +1,113 @@
+package com.janja.kit.photo;
+
+class PhotoDiskRunnable implements Runnable,
+        PhotoPriorityQueue.Prioritized {
+
+    static final int DISK_STATE_FAILED = -1;
+    static final int DISK_STATE_MISS = 0;
+    static final int DISK_STATE_HIT = 1;
+    static final int DISK_STATE_STALE = 2;
+
+    final TaskRunnableDiskMethods photoDiskTask;
+
+    interface TaskRunnableDiskMethods {
+        void setDiskThread(Thread currentThread);
+
+        PhotoDiskCache getDiskCache();
+
+        String getDiskCacheKey();
+
+        boolean isHttp();
+
+        void setByteBuffer(byte[] buffer);
+
+        void setRevalidation(byte[] staleBuffer, PhotoCacheHeaders headers);
+
+        void setPartialBody(byte[] partialBody, PhotoCacheHeaders validators);
+
+        void handleDiskState(int state);
+
+        int getPriority();
+
+        long getSequence();
+    }
+
+    PhotoDiskRunnable(TaskRunnableDiskMethods photoTask) {
+        photoDiskTask = photoTask;
+    }
+
+    @Override
+    public int getPriority() {
+        return photoDiskTask.getPriority();
+    }
+
+    @Override
+    public long getSequence() {
+        return photoDiskTask.getSequence();
+    }
+
+    @Override
+    public void run() {
+        photoDiskTask.setDiskThread(Thread.currentThread());
+        android.os.Process
+                .setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        int outState = DISK_STATE_FAILED;
+
+        try {
+            if (Thread.interrupted()) {
+                return;
+            }
+
+            byte[] byteBuffer = null;
+            PhotoCacheHeaders headers = null;
+            PhotoDiskCache diskCache = photoDiskTask.getDiskCache();
+            if (null != diskCache) {
+                String key = photoDiskTask.getDiskCacheKey();
+                byteBuffer = diskCache.get(key);
+                if (null != byteBuffer) {
+                    headers = PhotoCacheHeaders.decode(diskCache
+                            .getMetadata(key));
+                }
+            }
+
+            if (Thread.interrupted()) {
+                return;
+            }
+
+            if (null == byteBuffer) {
+                loadPartialBody(diskCache);
+                outState = DISK_STATE_MISS;
+            } else if (null == headers ? !photoDiskTask.isHttp() : headers
+                    .isFresh(System.currentTimeMillis())) {
+                photoDiskTask.setByteBuffer(byteBuffer);
+                outState = DISK_STATE_HIT;
+            } else if (null != headers && headers.hasValidators()) {
+                photoDiskTask.setRevalidation(byteBuffer, headers);
+                outState = DISK_STATE_STALE;
+            } else {
+                loadPartialBody(diskCache);
+                outState = DISK_STATE_MISS;
+            }
+        } finally {
+            photoDiskTask.setDiskThread(null);
+            Thread.interrupted();
+            photoDiskTask.handleDiskState(outState);
+        }
+    }
+
+    private void loadPartialBody(PhotoDiskCache diskCache) {
+        if (null == diskCache) {
+            return;
+        }
+        String key = photoDiskTask.getDiskCacheKey();
+        PhotoCacheHeaders validators = PhotoCacheHeaders.decode(diskCache
+                .getPartialMetadata(key));
+        if (null == validators || null == validators.getRangeValidator()) {
+            return;
+        }
+        byte[] partialBody = diskCache.getPartial(key);
+        if (null != partialBody) {
+            photoDiskTask.setPartialBody(partialBody, validators);
+        }
+    }
+}
@@ -1,142 +1,147 @@
 package com.janja.kit.photo;
 
-import java.io.EOFException;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 
-class PhotoDownloadRunnable implements Runnable {
+class PhotoDownloadRunnable implements Runnable,
+        PhotoPriorityQueue.Prioritized {
 
-    private static final int READ_SIZE = 1024 * 2;
+    private static final String LOG_TAG = "PhotoDownloadRunnable";
 
     static final int HTTP_STATE_FAILED = -1;
     static final int HTTP_STATE_STARTED = 0;
     static final int HTTP_STATE_COMPLETED = 1;
+    static final int HTTP_STATE_NOT_MODIFIED = 2;
 
     final TaskRunnableDownloadMethods photoDownTask;
 
-    interface TaskRunnableDownloadMethods {
+    interface TaskRunnableDownloadMethods extends PhotoFetcher.Job {
         void setDownloadThread(Thread currentThread);
 
         byte[] getByteBuffer();
 
         void setByteBuffer(byte[] buffer);
 
+        void setSource(FileDescriptor descriptor, Closeable owner);
+
         void handleDownloadState(int state);
 
-        URL getImageURL();
+        PhotoFetcher getFetcher();
+
+        long getMaxPixels();
+
+        long getMaxBytes();
+
+        void setLimitExceeded(int limit);
+
+        /**
+         * Points the task at the request's smaller variant, once; returns
+         * false when there is none to try.
+         */
+        boolean switchToFallback();
+
+        byte[] getRevalidationBuffer();
+
+        PhotoCacheHeaders getCacheHeaders();
+
+        void setCacheHeaders(PhotoCacheHeaders headers);
+
+        byte[] getPartialBody();
+
+        PhotoCacheHeaders getPartialValidators();
+
+        void savePartialBody(byte[] partialBody, PhotoCacheHeaders validators);
+
+        void discardPartialBody();
+
+        PhotoByteArrayPool getByteArrayPool();
+
+        boolean isCancelled();
+
+        int getPriority();
+
+        long getSequence();
     }
 
     PhotoDownloadRunnable(TaskRunnableDownloadMethods photoTask) {
         photoDownTask = photoTask;
     }
 
+    @Override
+    public int getPriority() {
+        return photoDownTask.getPriority();
+    }
+
+    @Override
+    public long getSequence() {
+        return photoDownTask.getSequence();
+    }
+
     @Override
     public void run() {
         photoDownTask.setDownloadThread(Thread.currentThread());
         android.os.Process
                 .setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
         byte[] byteBuffer = photoDownTask.getByteBuffer();
+        int outState = HTTP_STATE_FAILED;
 
         try {
             if (Thread.interrupted()) {
                 throw new InterruptedException();
             }
 
-            if (null == byteBuffer) {
-                photoDownTask.handleDownloadState(HTTP_STATE_STARTED);
-                InputStream byteStream = null;
-                try {
-                    HttpURLConnection httpConn = (HttpURLConnection) photoDownTask
-                            .getImageURL().openConnection();
-                    if (Thread.interrupted()) {
-                        throw new InterruptedException();
-                    }
-
-                    byteStream = httpConn.getInputStream();
-                    if (Thread.interrupted()) {
-                        throw new InterruptedException();
-                    }
-
-                    int contentSize = httpConn.getContentLength();
-
-                    if (-1 == contentSize) {
-                        byte[] tempBuffer = new byte[READ_SIZE];
-                        int bufferLeft = tempBuffer.length;
-                        int bufferOffset = 0;
-                        int readResult = 0;
-
-                        outer: do {
-                            while (bufferLeft > 0) {
-                                readResult = byteStream.read(tempBuffer,
-                                        bufferOffset, bufferLeft);
-                                if (readResult < 0) {
-                                    break outer;
-                                }
-
-                                bufferOffset += readResult;
-                                bufferLeft -= readResult;
-                                if (Thread.interrupted()) {
-                                    throw new InterruptedException();
-                                }
-                            }
-                            bufferLeft = READ_SIZE;
-
-                            int newSize = tempBuffer.length + READ_SIZE;
-                            byte[] expandedBuffer = new byte[newSize];
-                            System.arraycopy(tempBuffer, 0, expandedBuffer, 0,
-                                    tempBuffer.length);
-                            tempBuffer = expandedBuffer;
-                        } while (true);
-
-                        byteBuffer = new byte[bufferOffset];
-                        System.arraycopy(tempBuffer, 0, byteBuffer, 0,
-                                bufferOffset);
-                    } else {
-                        byteBuffer = new byte[contentSize];
-                        int remainingLength = contentSize;
-                        int bufferOffset = 0;
-
-                        while (remainingLength > 0) {
-                            int readResult = byteStream.read(byteBuffer,
-                                    bufferOffset, remainingLength);
-                            if (readResult < 0) {
-                                throw new EOFException();
-                            }
-                            bufferOffset += readResult;
-                            remainingLength -= readResult;
-                            if (Thread.interrupted()) {
-                                throw new InterruptedException();
-                            }
-                        }
-                    }
-                    if (Thread.interrupted()) {
+            if (null != byteBuffer) {
+                outState = HTTP_STATE_COMPLETED;
+                return;
+            }
 
-                        throw new InterruptedException();
+            photoDownTask.handleDownloadState(HTTP_STATE_STARTED);
+            PhotoFetcher.Result result = null;
+            while (null == result) {
+                try {
+                    result = photoDownTask.getFetcher().fetch(photoDownTask);
+                } catch (PhotoLimitException e) {
+                    photoDownTask.setLimitExceeded(e.getLimit());
+                    Log.w(LOG_TAG, e.getMessage() + ": " + photoDownTask.getUri());
+                    if (!photoDownTask.switchToFallback()) {
+                        return;
                     }
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    if (!photoDownTask.isCancelled()) {
+                        e.printStackTrace();
+                    }
                     return;
                 } finally {
-                    if (null != byteStream) {
-                        try {
-                            byteStream.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                    photoDownTask.setCancelHandle(null);
                 }
             }
-            photoDownTask.setByteBuffer(byteBuffer);
-            photoDownTask.handleDownloadState(HTTP_STATE_COMPLETED);
+
+            if (result.isNotModified()) {
+                photoDownTask.setByteBuffer(photoDownTask
+                        .getRevalidationBuffer());
+                outState = HTTP_STATE_NOT_MODIFIED;
+            } else if (null != result.getDescriptor()) {
+                photoDownTask.setSource(result.getDescriptor(),
+                        result.getOwner());
+                outState = HTTP_STATE_COMPLETED;
+            } else {
+                photoDownTask.setByteBuffer(result.getBytes());
+                outState = HTTP_STATE_COMPLETED;
+            }
+            if (Thread.interrupted()) {
+                outState = HTTP_STATE_FAILED;
+            }
         } catch (InterruptedException e1) {
+            outState = HTTP_STATE_FAILED;
         } finally {
-            if (null == byteBuffer) {
-                photoDownTask.handleDownloadState(HTTP_STATE_FAILED);
-            }
+            // Cleared before the hand-off; the decode stage stores its own
+            // thread in the same field.
             photoDownTask.setDownloadThread(null);
             Thread.interrupted();
+            photoDownTask.handleDownloadState(outState);
         }
     }
 }
@@ -0,0 +1,101 @@
+package com.janja.kit.photo;
+
+import android.net.Uri;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface PhotoFetcher {
+
+    interface Job {
+
+        Uri getUri();
+
+        void markConnected();
+
+        void markResponseStarted();
+
+        /**
+         * Closed from another thread when the request is cancelled, which
+         * should make a blocked read fail promptly.
+         */
+        void setCancelHandle(Closeable handle);
+
+        /**
+         * Reads the whole stream into pooled segments; pass -1 when the
+         * length is unknown.
+         */
+        byte[] readFully(InputStream input, int length) throws IOException,
+                InterruptedException;
+    }
+
+    final class Result {
+
+        private static final Result NOT_MODIFIED = new Result(null, null,
+                null);
+
+        private final byte[] bytes;
+        private final FileDescriptor descriptor;
+        private final Closeable owner;
+
+        private Result(byte[] bytes, FileDescriptor descriptor,
+                Closeable owner) {
+            this.bytes = bytes;
+            this.descriptor = descriptor;
+            this.owner = owner;
+        }
+
+        public static Result fromBytes(byte[] bytes) {
+            if (bytes == null) {
+                throw new IllegalArgumentException("bytes == null");
+            }
+            return new Result(bytes, null, null);
+        }
+
+        /**
+         * The descriptor is decoded in place and owner is closed once the
+         * task is done with it.
+         */
+        public static Result fromDescriptor(FileDescriptor descriptor,
+                Closeable owner) {
+            if (descriptor == null) {
+                throw new IllegalArgumentException("descriptor == null");
+            }
+            return new Result(null, descriptor, owner);
+        }
+
+        static Result notModified() {
+            return NOT_MODIFIED;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public FileDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        Closeable getOwner() {
+            return owner;
+        }
+
+        boolean isNotModified() {
+            return this == NOT_MODIFIED;
+        }
+    }
+
+    /**
+     * Runs on a download thread and should check for interruption between
+     * blocking steps.
+     */
+    Result fetch(Job job) throws IOException, InterruptedException;
+
+    /**
+     * Local sources skip the disk cache and are left out of the network
+     * concurrency measurements.
+     */
+    boolean isLocal();
+}
@@ -0,0 +1,138 @@
+package com.janja.kit.photo;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.ParcelFileDescriptor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class PhotoFetchers {
+
+    public static final String SCHEME_HTTP = "http";
+    public static final String SCHEME_HTTPS = "https";
+    public static final String SCHEME_FILE = ContentResolver.SCHEME_FILE;
+    public static final String SCHEME_CONTENT = ContentResolver.SCHEME_CONTENT;
+    public static final String SCHEME_ANDROID_RESOURCE = ContentResolver.SCHEME_ANDROID_RESOURCE;
+    public static final String SCHEME_ASSET = "asset";
+
+    private PhotoFetchers() {
+    }
+
+    public static PhotoFetcher http() {
+        return new PhotoHttpFetcher();
+    }
+
+    public static PhotoFetcher file() {
+        return new LocalFile();
+    }
+
+    public static PhotoFetcher content(ContentResolver resolver) {
+        return new Content(resolver);
+    }
+
+    public static PhotoFetcher assets(AssetManager assets) {
+        return new Assets(assets);
+    }
+
+    private static PhotoFetcher.Result openDescriptor(
+            AssetFileDescriptor descriptor) throws IOException {
+        FileInputStream input = descriptor.createInputStream();
+        return PhotoFetcher.Result.fromDescriptor(input.getFD(), input);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class LocalFile implements PhotoFetcher {
+
+        @Override
+        public Result fetch(Job job) throws IOException {
+            ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(
+                    new File(job.getUri().getPath()),
+                    ParcelFileDescriptor.MODE_READ_ONLY);
+            job.setCancelHandle(descriptor);
+            return Result.fromDescriptor(descriptor.getFileDescriptor(),
+                    descriptor);
+        }
+
+        @Override
+        public boolean isLocal() {
+            return true;
+        }
+    }
+
+    private static class Content implements PhotoFetcher {
+
+        private final ContentResolver resolver;
+
+        Content(ContentResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public Result fetch(Job job) throws IOException {
+            AssetFileDescriptor descriptor = resolver.openAssetFileDescriptor(
+                    job.getUri(), "r");
+            if (descriptor == null) {
+                throw new FileNotFoundException(job.getUri().toString());
+            }
+            job.setCancelHandle(descriptor);
+            return openDescriptor(descriptor);
+        }
+
+        @Override
+        public boolean isLocal() {
+            return true;
+        }
+    }
+
+    private static class Assets implements PhotoFetcher {
+
+        private final AssetManager assets;
+
+        Assets(AssetManager assets) {
+            this.assets = assets;
+        }
+
+        @Override
+        public Result fetch(Job job) throws IOException, InterruptedException {
+            String path = job.getUri().getPath();
+            if (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            AssetFileDescriptor descriptor;
+            try {
+                descriptor = assets.openFd(path);
+            } catch (FileNotFoundException e) {
+                // Compressed assets have no descriptor of their own.
+                InputStream input = assets.open(path);
+                job.setCancelHandle(input);
+                try {
+                    return Result.fromBytes(job.readFully(input, -1));
+                } finally {
+                    closeQuietly(input);
+                }
+            }
+            job.setCancelHandle(descriptor);
+            return openDescriptor(descriptor);
+        }
+
+        @Override
+        public boolean isLocal() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.janja.kit.photo;
+
+/**
+ * Reads the dimensions of a JPEG, PNG, WebP or GIF from the first bytes of
+ * the file, before the rest of it has arrived.
+ */
+final class PhotoHeaderProbe {
+
+    static final int MAX_HEADER_LENGTH = 1024 * 64;
+
+    static final PhotoHeaderProbe UNKNOWN = new PhotoHeaderProbe(null, -1, -1);
+
+    private static final int MIN_HEADER_LENGTH = 30;
+
+    private final String mimeType;
+    private final int width;
+    private final int height;
+
+    private PhotoHeaderProbe(String mimeType, int width, int height) {
+        this.mimeType = mimeType;
+        this.width = width;
+        this.height = height;
+    }
+
+    String getMimeType() {
+        return mimeType;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    long getPixelCount() {
+        return (long) width * height;
+    }
+
+    /**
+     * Returns null while more of the header is needed and {@link #UNKNOWN}
+     * when the format is not recognised or the header is malformed.
+     */
+    static PhotoHeaderProbe probe(byte[] data, int length) {
+        if (length >= 2 && (data[0] & 0xFF) == 0xFF
+                && (data[1] & 0xFF) == 0xD8) {
+            return probeJpeg(data, length);
+        }
+        if (length < MIN_HEADER_LENGTH) {
+            return null;
+        }
+        if (startsWith(data, 0, "\u0089PNG\r\n\u001A\n")) {
+            if (!startsWith(data, 12, "IHDR")) {
+                return UNKNOWN;
+            }
+            return create("image/png", readInt(data, 16), readInt(data, 20));
+        }
+        if (startsWith(data, 0, "GIF87a") || startsWith(data, 0, "GIF89a")) {
+            return create("image/gif", readShortLittle(data, 6),
+                    readShortLittle(data, 8));
+        }
+        if (startsWith(data, 0, "RIFF") && startsWith(data, 8, "WEBP")) {
+            return probeWebp(data);
+        }
+        return UNKNOWN;
+    }
+
+    private static PhotoHeaderProbe probeJpeg(byte[] data, int length) {
+        int pos = 2;
+        while (pos + 4 <= length) {
+            if ((data[pos] & 0xFF) != 0xFF) {
+                return UNKNOWN;
+            }
+            int marker = data[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // Image data started without a frame header.
+                return UNKNOWN;
+            }
+            int segmentLength = readShort(data, pos + 2);
+            if (segmentLength < 2) {
+                return UNKNOWN;
+            }
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4
+                    && marker != 0xC8 && marker != 0xCC) {
+                if (pos + 9 > length) {
+                    return null;
+                }
+                return create("image/jpeg", readShort(data, pos + 7),
+                        readShort(data, pos + 5));
+            }
+            pos += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    private static PhotoHeaderProbe probeWebp(byte[] data) {
+        if (startsWith(data, 12, "VP8 ")) {
+            if ((data[23] & 0xFF) != 0x9D || (data[24] & 0xFF) != 0x01
+                    || (data[25] & 0xFF) != 0x2A) {
+                return UNKNOWN;
+            }
+            return create("image/webp", readShortLittle(data, 26) & 0x3FFF,
+                    readShortLittle(data, 28) & 0x3FFF);
+        }
+        if (startsWith(data, 12, "VP8L")) {
+            if ((data[20] & 0xFF) != 0x2F) {
+                return UNKNOWN;
+            }
+            int bits = (data[21] & 0xFF) | (data[22] & 0xFF) << 8
+                    | (data[23] & 0xFF) << 16 | (data[24] & 0xFF) << 24;
+            return create("image/webp", (bits & 0x3FFF) + 1,
+                    ((bits >> 14) & 0x3FFF) + 1);
+        }
+        if (startsWith(data, 12, "VP8X")) {
+            return create("image/webp", readThreeLittle(data, 24) + 1,
+                    readThreeLittle(data, 27) + 1);
+        }
+        return UNKNOWN;
+    }
+
+    private static PhotoHeaderProbe create(String mimeType, int width,
+            int height) {
+        if (width <= 0 || height <= 0) {
+            return UNKNOWN;
+        }
+        return new PhotoHeaderProbe(mimeType, width, height);
+    }
+
+    private static boolean startsWith(byte[] data, int offset, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if ((data[offset + i] & 0xFF) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readShortLittle(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readThreeLittle(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return readShort(data, offset) << 16 | readShort(data, offset + 2);
+    }
+
+    @Override
+    public String toString() {
+        return this == UNKNOWN ? "unknown" : mimeType + " " + width + "x"
+                + height;
+    }
+}
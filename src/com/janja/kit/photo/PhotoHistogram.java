@@ -0,0 +1,86 @@
+package com.janja.kit.photo;
+
+public class PhotoHistogram {
+
+    private static final int BUCKET_COUNT = 18;
+
+    private final long[] counts;
+    private long count;
+    private long sum;
+    private long max;
+
+    PhotoHistogram() {
+        counts = new long[BUCKET_COUNT];
+    }
+
+    private PhotoHistogram(PhotoHistogram source) {
+        counts = source.counts.clone();
+        count = source.count;
+        sum = source.sum;
+        max = source.max;
+    }
+
+    void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        int bucket = 0;
+        while (bucket < BUCKET_COUNT - 1 && value > getBucketUpperBound(bucket)) {
+            bucket++;
+        }
+        counts[bucket]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    PhotoHistogram copy() {
+        return new PhotoHistogram(this);
+    }
+
+    public int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    public long getBucketUpperBound(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getBucketValue(int bucket) {
+        return counts[bucket];
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public long getPercentile(float percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100f);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, getBucketUpperBound(i));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + getMean() + "ms, p50<="
+                + getPercentile(50) + "ms, p95<=" + getPercentile(95)
+                + "ms, max=" + max + "ms";
+    }
+}
@@ -0,0 +1,176 @@
+package com.janja.kit.photo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+class PhotoHostScheduler {
+
+    private final ThreadPoolExecutor executor;
+    private final PhotoPriorityQueue.DropListener dropListener;
+    private final Map<String, PhotoPriorityQueue> pendingByHost = new LinkedHashMap<String, PhotoPriorityQueue>();
+    private final LinkedList<String> hostRotation = new LinkedList<String>();
+    private final Map<String, Integer> inFlightByHost = new HashMap<String, Integer>();
+    private final IdentityHashMap<Runnable, String> admitted = new IdentityHashMap<Runnable, String>();
+    private int maxPerHost;
+    private int maxQueuedPerHost = Integer.MAX_VALUE;
+    private boolean lifo;
+
+    PhotoHostScheduler(ThreadPoolExecutor executor, int maxPerHost,
+            PhotoPriorityQueue.DropListener dropListener) {
+        this.executor = executor;
+        this.maxPerHost = maxPerHost;
+        this.dropListener = dropListener;
+    }
+
+    synchronized void execute(String host, Runnable runnable) {
+        PhotoPriorityQueue pending = pendingByHost.get(host);
+        if (pending == null) {
+            pending = new PhotoPriorityQueue(PhotoManager.PRIORITY_HIGH);
+            pending.setLifo(lifo);
+            pending.setMaxSize(maxQueuedPerHost);
+            pending.setDropListener(dropListener);
+            pendingByHost.put(host, pending);
+            hostRotation.addLast(host);
+        }
+        pending.offer(runnable);
+        schedule();
+    }
+
+    synchronized boolean remove(Runnable runnable) {
+        for (Map.Entry<String, PhotoPriorityQueue> entry : pendingByHost
+                .entrySet()) {
+            if (entry.getValue().remove(runnable)) {
+                if (entry.getValue().isEmpty()) {
+                    pendingByHost.remove(entry.getKey());
+                    hostRotation.remove(entry.getKey());
+                }
+                return true;
+            }
+        }
+        if (admitted.containsKey(runnable) && executor.remove(runnable)) {
+            finished(runnable);
+            return true;
+        }
+        return false;
+    }
+
+    synchronized boolean reprioritize(Runnable runnable) {
+        for (PhotoPriorityQueue pending : pendingByHost.values()) {
+            if (pending.reprioritize(runnable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void finished(Runnable runnable) {
+        String host = admitted.remove(runnable);
+        if (host == null) {
+            return;
+        }
+        int count = inFlightByHost.get(host) - 1;
+        if (count > 0) {
+            inFlightByHost.put(host, count);
+        } else {
+            inFlightByHost.remove(host);
+        }
+        schedule();
+    }
+
+    synchronized int getPendingCount() {
+        int count = 0;
+        for (PhotoPriorityQueue pending : pendingByHost.values()) {
+            count += pending.size();
+        }
+        return count;
+    }
+
+    synchronized void setMaxPerHost(int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+        schedule();
+    }
+
+    synchronized void setLifo(boolean lifo) {
+        this.lifo = lifo;
+        for (PhotoPriorityQueue pending : pendingByHost.values()) {
+            pending.setLifo(lifo);
+        }
+    }
+
+    synchronized void setMaxQueuedPerHost(int maxQueued) {
+        maxQueuedPerHost = maxQueued;
+        for (PhotoPriorityQueue pending : pendingByHost.values()) {
+            pending.setMaxSize(maxQueued);
+        }
+    }
+
+    synchronized void schedule() {
+        while (admitted.size() < executor.getMaximumPoolSize()) {
+            String host = nextHost();
+            if (host == null) {
+                return;
+            }
+            PhotoPriorityQueue pending = pendingByHost.get(host);
+            Runnable runnable = pending.poll();
+            if (pending.isEmpty()) {
+                pendingByHost.remove(host);
+                hostRotation.remove(host);
+            }
+            if (runnable == null) {
+                continue;
+            }
+            Integer count = inFlightByHost.get(host);
+            inFlightByHost.put(host, count == null ? 1 : count + 1);
+            admitted.put(runnable, host);
+            executor.execute(runnable);
+        }
+    }
+
+    private String nextHost() {
+        String best = null;
+        int bestPriority = 0;
+        for (String host : hostRotation) {
+            Integer count = inFlightByHost.get(host);
+            if (count != null && count >= maxPerHost) {
+                continue;
+            }
+            Runnable head = pendingByHost.get(host).peek();
+            int priority = 0;
+            if (head instanceof PhotoPriorityQueue.Prioritized) {
+                priority = ((PhotoPriorityQueue.Prioritized) head).getPriority();
+            }
+            if (best == null || priority > bestPriority) {
+                best = host;
+                bestPriority = priority;
+            }
+        }
+        if (best != null) {
+            hostRotation.remove(best);
+            hostRotation.addLast(best);
+        }
+        return best;
+    }
+
+    synchronized List<PhotoHostStats> getStats() {
+        Map<String, PhotoHostStats> stats = new LinkedHashMap<String, PhotoHostStats>();
+        for (Map.Entry<String, PhotoPriorityQueue> entry : pendingByHost
+                .entrySet()) {
+            Integer count = inFlightByHost.get(entry.getKey());
+            stats.put(entry.getKey(), new PhotoHostStats(entry.getKey(), entry
+                    .getValue().size(), count == null ? 0 : count));
+        }
+        for (Map.Entry<String, Integer> entry : inFlightByHost.entrySet()) {
+            if (!stats.containsKey(entry.getKey())) {
+                stats.put(entry.getKey(), new PhotoHostStats(entry.getKey(),
+                        0, entry.getValue()));
+            }
+        }
+        return new ArrayList<PhotoHostStats>(stats.values());
+    }
+}
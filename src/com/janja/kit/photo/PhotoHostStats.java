@@ -0,0 +1,32 @@
+package com.janja.kit.photo;
+
+public class PhotoHostStats {
+
+    private final String host;
+    private final int queuedCount;
+    private final int inFlightCount;
+
+    PhotoHostStats(String host, int queuedCount, int inFlightCount) {
+        this.host = host;
+        this.queuedCount = queuedCount;
+        this.inFlightCount = inFlightCount;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getQueuedCount() {
+        return queuedCount;
+    }
+
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PhotoHostStats[" + host + ", queued=" + queuedCount
+                + ", inFlight=" + inFlightCount + "]";
+    }
+}
@@ -0,0 +1,209 @@
+package com.janja.kit.photo;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import com.janja.kit.photo.PhotoDownloadRunnable.TaskRunnableDownloadMethods;
+
+/**
+ * Fetches http and https URLs, revalidating stale disk entries and resuming
+ * transfers that broke off part way.
+ */
+class PhotoHttpFetcher implements PhotoFetcher {
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int MIN_RESUMABLE_LENGTH = 1024 * 64;
+    private static final int MIN_PARTIAL_LENGTH = 1024 * 16;
+
+    @Override
+    public Result fetch(Job job) throws IOException, InterruptedException {
+        return fetch(job, new URL(job.getUri().toString()));
+    }
+
+    Result fetch(Job job, URL url) throws IOException, InterruptedException {
+        final HttpURLConnection httpConn = (HttpURLConnection) url
+                .openConnection();
+        job.setCancelHandle(new Closeable() {
+            @Override
+            public void close() {
+                httpConn.disconnect();
+            }
+        });
+
+        TaskRunnableDownloadMethods task = null;
+        if (job instanceof TaskRunnableDownloadMethods) {
+            task = (TaskRunnableDownloadMethods) job;
+        }
+        byte[] staleBuffer = task == null ? null : task
+                .getRevalidationBuffer();
+        PhotoCacheHeaders validators = task == null ? null : task
+                .getCacheHeaders();
+        byte[] partialBody = null;
+        if (null != staleBuffer && null != validators) {
+            if (null != validators.getEtag()) {
+                httpConn.setRequestProperty("If-None-Match",
+                        validators.getEtag());
+            }
+            if (null != validators.getLastModified()) {
+                httpConn.setRequestProperty("If-Modified-Since",
+                        validators.getLastModified());
+            }
+        } else if (null != task && null != task.getPartialBody()) {
+            partialBody = task.getPartialBody();
+            httpConn.setRequestProperty("Range", "bytes="
+                    + partialBody.length + "-");
+            httpConn.setRequestProperty("If-Range", task
+                    .getPartialValidators().getRangeValidator());
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        InputStream byteStream = null;
+        try {
+            httpConn.connect();
+            job.markConnected();
+            int responseCode = httpConn.getResponseCode();
+            job.markResponseStarted();
+            PhotoCacheHeaders responseHeaders = PhotoCacheHeaders
+                    .fromConnection(httpConn, System.currentTimeMillis());
+            if (HttpURLConnection.HTTP_NOT_MODIFIED == responseCode
+                    && null != staleBuffer && null != validators) {
+                task.setCacheHeaders(validators.revalidated(responseHeaders));
+                return Result.notModified();
+            }
+            if (null != partialBody) {
+                // A range that does not start where the saved prefix ends
+                // is no use; start over without one.
+                if (HTTP_RANGE_NOT_SATISFIABLE == responseCode
+                        || (HttpURLConnection.HTTP_PARTIAL == responseCode
+                                && getRangeStart(httpConn) != partialBody.length)) {
+                    task.discardPartialBody();
+                    httpConn.disconnect();
+                    return fetch(job, url);
+                }
+                if (HttpURLConnection.HTTP_PARTIAL != responseCode) {
+                    task.discardPartialBody();
+                    partialBody = null;
+                }
+            }
+            if (task != null) {
+                task.setCacheHeaders(responseHeaders);
+            }
+            int contentLength = httpConn.getContentLength();
+            if (task != null) {
+                PhotoLimitInputStream.checkLength(
+                        contentLength >= 0 && null != partialBody ? contentLength
+                                + partialBody.length : contentLength,
+                        task.getMaxBytes());
+            }
+            byteStream = httpConn.getInputStream();
+            if (task != null
+                    && (task.getMaxPixels() > 0 || task.getMaxBytes() > 0)) {
+                byteStream = new PhotoLimitInputStream(byteStream,
+                        task.getMaxPixels(), task.getMaxBytes(),
+                        partialBody);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            boolean resumable = null != partialBody
+                    || (null != task
+                            && null != responseHeaders.getRangeValidator()
+                            && (contentLength < 0 || contentLength >= MIN_RESUMABLE_LENGTH));
+            if (!resumable) {
+                return Result.fromBytes(job.readFully(byteStream,
+                        contentLength));
+            }
+            return Result.fromBytes(readResumable(task, byteStream,
+                    partialBody, contentLength, responseHeaders));
+        } catch (PhotoLimitException e) {
+            httpConn.disconnect();
+            throw e;
+        } finally {
+            closeQuietly(byteStream);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static long getRangeStart(HttpURLConnection httpConn) {
+        String contentRange = httpConn.getHeaderField("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the body after any saved prefix, keeping what arrived in the
+     * disk tier when the transfer breaks off so the next attempt can
+     * resume it.
+     */
+    private static byte[] readResumable(TaskRunnableDownloadMethods task,
+            InputStream byteStream, byte[] partialBody, int contentLength,
+            PhotoCacheHeaders validators) throws IOException,
+            InterruptedException {
+        PhotoSegmentedBuffer body = new PhotoSegmentedBuffer(
+                task.getByteArrayPool());
+        try {
+            int expectedLength = contentLength;
+            if (null != partialBody) {
+                body.write(partialBody, 0, partialBody.length);
+                if (contentLength >= 0) {
+                    expectedLength += partialBody.length;
+                }
+            }
+            try {
+                body.readFrom(byteStream);
+                if (expectedLength >= 0 && body.size() != expectedLength) {
+                    throw new EOFException();
+                }
+            } catch (PhotoLimitException e) {
+                throw e;
+            } catch (IOException e) {
+                keepPartialBody(task, body, validators);
+                throw e;
+            } catch (InterruptedException e) {
+                keepPartialBody(task, body, validators);
+                throw e;
+            }
+            return body.toByteArray();
+        } finally {
+            body.release();
+        }
+    }
+
+    private static void keepPartialBody(TaskRunnableDownloadMethods task,
+            PhotoSegmentedBuffer body, PhotoCacheHeaders validators) {
+        if (body.size() >= MIN_PARTIAL_LENGTH) {
+            task.savePartialBody(body.toByteArray(), validators);
+        }
+    }
+
+    @Override
+    public boolean isLocal() {
+        return false;
+    }
+}
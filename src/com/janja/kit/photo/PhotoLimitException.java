@@ -0,0 +1,26 @@
+package com.janja.kit.photo;
+
+import java.io.IOException;
+
+class PhotoLimitException extends IOException {
+
+    static final int LIMIT_PIXELS = 1;
+    static final int LIMIT_BYTES = 2;
+
+    private static final long serialVersionUID = 1L;
+
+    private final int limit;
+
+    PhotoLimitException(int limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * One of {@link #LIMIT_PIXELS} or {@link #LIMIT_BYTES}, which
+     * PhotoManager publishes under the same names.
+     */
+    int getLimit() {
+        return limit;
+    }
+}
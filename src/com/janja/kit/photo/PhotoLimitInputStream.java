@@ -0,0 +1,107 @@
+package com.janja.kit.photo;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Passes a response body through while counting it against a byte limit
+ * and probing its header against a pixel limit, so an oversized photo is
+ * abandoned after the first few kilobytes instead of after the transfer.
+ */
+class PhotoLimitInputStream extends FilterInputStream {
+
+    private static final int INITIAL_HEADER_LENGTH = 1024 * 4;
+
+    private final long maxPixels;
+    private final long maxBytes;
+    private long count;
+    private byte[] header;
+    private int headerLength;
+
+    /**
+     * prefix holds bytes already received for the same body, as when a
+     * download is resumed; it counts against both limits.
+     */
+    PhotoLimitInputStream(InputStream in, long maxPixels, long maxBytes,
+            byte[] prefix) throws PhotoLimitException {
+        super(in);
+        this.maxPixels = maxPixels;
+        this.maxBytes = maxBytes;
+        if (maxPixels > 0) {
+            header = new byte[INITIAL_HEADER_LENGTH];
+        }
+        if (prefix != null) {
+            received(prefix, 0, prefix.length);
+        }
+    }
+
+    static void checkLength(long length, long maxBytes)
+            throws PhotoLimitException {
+        if (maxBytes > 0 && length > maxBytes) {
+            throw new PhotoLimitException(PhotoLimitException.LIMIT_BYTES,
+                    "Photo is " + length + " bytes, over the " + maxBytes
+                            + " byte limit");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int readResult = read(single, 0, 1);
+        return readResult < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int readResult = in.read(buffer, offset, length);
+        if (readResult > 0) {
+            received(buffer, offset, readResult);
+        }
+        return readResult;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = in.skip(byteCount);
+        count += skipped;
+        header = null;
+        checkLength(count, maxBytes);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void received(byte[] buffer, int offset, int length)
+            throws PhotoLimitException {
+        count += length;
+        checkLength(count, maxBytes);
+        if (header == null) {
+            return;
+        }
+        int copied = Math.min(length, PhotoHeaderProbe.MAX_HEADER_LENGTH
+                - headerLength);
+        if (headerLength + copied > header.length) {
+            header = Arrays.copyOf(header, Math.min(
+                    PhotoHeaderProbe.MAX_HEADER_LENGTH,
+                    Math.max(header.length * 2, headerLength + copied)));
+        }
+        System.arraycopy(buffer, offset, header, headerLength, copied);
+        headerLength += copied;
+
+        PhotoHeaderProbe probe = PhotoHeaderProbe.probe(header, headerLength);
+        if (probe == null && headerLength < PhotoHeaderProbe.MAX_HEADER_LENGTH) {
+            return;
+        }
+        header = null;
+        if (probe != null && probe.getPixelCount() > maxPixels) {
+            throw new PhotoLimitException(PhotoLimitException.LIMIT_PIXELS,
+                    "Photo is " + probe + ", over the " + maxPixels
+                            + " pixel limit");
+        }
+    }
+}
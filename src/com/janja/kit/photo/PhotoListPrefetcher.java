@@ -0,0 +1,154 @@
+package com.janja.kit.photo;
+
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.ListView;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.janja.kit.view.SwipeRefreshListView.OnSwipeRefreshScrollListener;
+
+public class PhotoListPrefetcher implements OnSwipeRefreshScrollListener {
+
+    private static final int MIN_LOOKAHEAD = 2;
+    private static final int MAX_LOOKAHEAD = 30;
+    private static final long DEFAULT_LATENCY_MILLIS = 300;
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    public interface PhotoURLProvider {
+        URL getPhotoURL(int position);
+
+        int getCount();
+    }
+
+    private final PhotoURLProvider provider;
+    private final int targetWidth;
+    private final int targetHeight;
+    private final OnScrollListener delegate;
+    private PhotoManager photoManager;
+    private int lastFirstVisible = -1;
+    private long lastScrollTime;
+    private float velocity;
+    private int prefetchedFrom = -1;
+    private int prefetchedTo = -1;
+
+    public PhotoListPrefetcher(PhotoURLProvider provider, int targetWidth,
+            int targetHeight) {
+        this(provider, targetWidth, targetHeight, null);
+    }
+
+    public PhotoListPrefetcher(PhotoURLProvider provider, int targetWidth,
+            int targetHeight, OnScrollListener delegate) {
+        this.provider = provider;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.delegate = delegate;
+    }
+
+    public PhotoManager getPhotoManager() {
+        return photoManager != null ? photoManager : PhotoManager
+                .getInstance();
+    }
+
+    /**
+     * Prefetches through the given manager instead of the
+     * default one.
+     */
+    public void setPhotoManager(PhotoManager manager) {
+        photoManager = manager;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState == OnScrollListener.SCROLL_STATE_IDLE) {
+            velocity = 0;
+        }
+        if (delegate != null) {
+            delegate.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem,
+            int visibleItemCount, int totalItemCount) {
+        int headerCount = 0;
+        if (view instanceof ListView) {
+            headerCount = ((ListView) view).getHeaderViewsCount();
+        }
+        prefetch(firstVisibleItem - headerCount, visibleItemCount);
+
+        if (delegate != null) {
+            delegate.onScroll(view, firstVisibleItem, visibleItemCount,
+                    totalItemCount);
+        }
+    }
+
+    @Override
+    public void onSwipeRefreshScrolling(View view) {
+        if (delegate instanceof OnSwipeRefreshScrollListener) {
+            ((OnSwipeRefreshScrollListener) delegate)
+                    .onSwipeRefreshScrolling(view);
+        }
+    }
+
+    private void prefetch(int firstVisible, int visibleCount) {
+        long now = SystemClock.uptimeMillis();
+        if (lastFirstVisible >= 0 && now > lastScrollTime) {
+            float instant = (firstVisible - lastFirstVisible) * 1000f
+                    / (now - lastScrollTime);
+            velocity = velocity * VELOCITY_SMOOTHING + instant
+                    * (1 - VELOCITY_SMOOTHING);
+        }
+        boolean moved = firstVisible != lastFirstVisible;
+        lastFirstVisible = firstVisible;
+        lastScrollTime = now;
+        if (!moved && prefetchedFrom >= 0) {
+            return;
+        }
+
+        int count = provider.getCount();
+        int lookahead = getLookahead();
+        int from;
+        int to;
+        if (velocity < 0) {
+            from = Math.max(0, firstVisible - lookahead);
+            to = firstVisible - 1;
+        } else {
+            from = firstVisible + visibleCount;
+            to = Math.min(count - 1, firstVisible + visibleCount + lookahead
+                    - 1);
+        }
+
+        List<URL> urls = new ArrayList<URL>();
+        for (int position = from; position <= to; position++) {
+            if (position >= prefetchedFrom && position <= prefetchedTo) {
+                continue;
+            }
+            URL url = provider.getPhotoURL(position);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        prefetchedFrom = from;
+        prefetchedTo = to;
+
+        if (!urls.isEmpty()) {
+            getPhotoManager().enqueuePrefetch(urls, targetWidth,
+                    targetHeight);
+        }
+    }
+
+    private int getLookahead() {
+        long latency = getPhotoManager().getDownloadLatency();
+        if (latency <= 0) {
+            latency = DEFAULT_LATENCY_MILLIS;
+        }
+        int lookahead = MIN_LOOKAHEAD
+                + (int) Math.ceil(Math.abs(velocity) * latency / 1000f);
+        return Math.min(MAX_LOOKAHEAD, lookahead);
+    }
+}
@@ -0,0 +1,53 @@
+package com.janja.kit.photo;
+
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PhotoLoopbackFetcher implements PhotoFetcher {
+
+    public static final String SCHEME = "loopback";
+
+    private final Map<String, byte[]> photos = new HashMap<String, byte[]>();
+
+    public static Uri getUri(String name) {
+        return Uri.parse(SCHEME + ":///" + name);
+    }
+
+    public synchronized void put(String name, byte[] data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data == null");
+        }
+        photos.put(name, data);
+    }
+
+    public synchronized void remove(String name) {
+        photos.remove(name);
+    }
+
+    public synchronized void clear() {
+        photos.clear();
+    }
+
+    @Override
+    public Result fetch(Job job) throws FileNotFoundException {
+        String path = job.getUri().getPath();
+        String name = path != null && path.startsWith("/") ? path.substring(1)
+                : path;
+        byte[] data;
+        synchronized (this) {
+            data = photos.get(name);
+        }
+        if (data == null) {
+            throw new FileNotFoundException(job.getUri().toString());
+        }
+        return Result.fromBytes(data);
+    }
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+}
@@ -1,181 +1,1407 @@
 package com.janja.kit.photo;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
 import android.support.v4.util.LruCache;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.janja.kit.R;
+import android.util.Log;
 
 public class PhotoManager {
     public static final int DOWNLOAD_FAILED = -1;
+    public static final int TASK_QUEUED = 0;
     public static final int DOWNLOAD_STARTED = 1;
     public static final int DOWNLOAD_COMPLETE = 2;
     public static final int DECODE_STARTED = 3;
     public static final int TASK_COMPLETE = 4;
+    public static final int DISK_CACHE_MISS = 5;
+    public static final int TASK_DROPPED = 6;
 
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    public static final int SOURCE_MEMORY = 1;
+    public static final int SOURCE_DISK = 2;
+    public static final int SOURCE_NETWORK = 3;
+    public static final int SOURCE_REVALIDATED = 4;
+    public static final int SOURCE_LOCAL = 5;
+
+    public static final int LIMIT_NONE = 0;
+    public static final int LIMIT_PIXELS = PhotoLimitException.LIMIT_PIXELS;
+    public static final int LIMIT_BYTES = PhotoLimitException.LIMIT_BYTES;
+
+    public static final Object PREFETCH_TAG = new Object();
+
+    static final Bitmap.Config DEFAULT_BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
+
+    private static final String LOG_TAG = "PhotoManager";
+    private static final String DISK_CACHE_DIR = "photos";
+    private static final long DISK_CACHE_SIZE = 1024 * 1024 * 50;
+    private static final int DISK_POOL_SIZE = 2;
+    private static final int MAX_QUEUED_TASKS = 48;
+    private static final int MAX_DOWNLOADS_PER_HOST = 4;
+    private static final int MIN_DOWNLOAD_POOL_SIZE = 2;
+    private static final int MAX_DOWNLOAD_POOL_SIZE = 16;
+    private static final int MIN_DECODE_POOL_SIZE = 1;
+    private static final int LATENCY_SMOOTHING = 8;
+    private static final long DELIVERY_FRAME_BUDGET = 4;
     private static final int IMAGE_CACHE_SIZE = 1024 * 1024 * 4;
-    private static final int KEEP_ALIVE_TIME = 1;
-    private static final TimeUnit KEEP_ALIVE_TIME_UNIT;
+    private static final int BITMAP_CACHE_SIZE = 1024 * 1024 * 8;
+    private static final int BITMAP_POOL_SIZE = 1024 * 1024 * 4;
+    private static final int BITMAP_CACHE_HEAP_DIVISOR = 8;
+    private static final int IMAGE_CACHE_HEAP_DIVISOR = 16;
+    private static final int BITMAP_POOL_HEAP_DIVISOR = 16;
+    private static final int BYTE_SEGMENT_SIZE = 1024 * 16;
+    private static final int MAX_POOLED_BYTE_SEGMENTS = 64;
+    private static final int KEEP_ALIVE_TIME = 30;
+    private static final TimeUnit KEEP_ALIVE_TIME_UNIT = TimeUnit.SECONDS;
     private static final int CORE_POOL_SIZE = 8;
-    private static final int MAXIMUM_POOL_SIZE = 8;
     private static int NUMBER_OF_CORES = Runtime.getRuntime()
             .availableProcessors();
 
-    private final LruCache<URL, byte[]> photoCache;
-    private final BlockingQueue<Runnable> downloadWorkQueue;
-    private final BlockingQueue<Runnable> decodeWorkQueue;
+    private final Object memoryCacheLock = new Object();
+    private volatile LruCache<PhotoRequestKey, byte[]> photoCache;
+    private volatile LruCache<PhotoRequestKey, Bitmap> bitmapCache;
+    private final PhotoBitmapPool bitmapPool;
+    private final PhotoByteArrayPool byteArrayPool;
+    private volatile int photoCacheBudget;
+    private volatile int bitmapCacheBudget;
+    private boolean memoryCallbacksRegistered;
+    private final PhotoPriorityQueue diskWorkQueue;
+    private final PhotoPriorityQueue downloadWorkQueue;
+    private final PhotoPriorityQueue decodeWorkQueue;
+    private final AtomicLong taskSequence = new AtomicLong();
+    private volatile long averageDownloadLatency;
     private final Queue<PhotoTask> photoTaskWorkQueue;
+    private final Map<PhotoRequestKey, PhotoTask> inFlightTasks;
+    private final Map<PhotoTarget, PhotoRequest> targetRequests;
+    private final Map<String, PhotoFetcher> fetchers;
+    private final Map<Object, Boolean> pausedTags;
+    private final List<PhotoTask> pausedDownloads;
+    private final List<PhotoTask> pausedDecodes;
+    private final ThreadPoolExecutor diskThreadPool;
     private final ThreadPoolExecutor downloadThreadPool;
     private final ThreadPoolExecutor decodeThreadPool;
-    private Handler handler;
-    private static PhotoManager sInstance = null;
+    private final PhotoHostScheduler hostScheduler;
+    private final PhotoConcurrencyController concurrencyController;
+    private final PhotoMetricsRecorder metricsRecorder;
+    private volatile PhotoMetrics.Listener metricsListener;
+    private final Handler handler;
+    private final PhotoDeliveryQueue deliveryQueue;
+    private final Object diskCacheLock = new Object();
+    private volatile File diskCacheDir;
+    private long diskCacheSize;
+    private volatile PhotoDiskCache diskCache;
+    private static volatile PhotoManager sInstance;
 
-    static {
-        KEEP_ALIVE_TIME_UNIT = TimeUnit.SECONDS;
-        sInstance = new PhotoManager();
+    private PhotoManager(Builder builder) {
+        PhotoPriorityQueue.DropListener dropListener = new PhotoPriorityQueue.DropListener() {
+            @Override
+            public void onDropped(Runnable runnable) {
+                dropTask(runnable);
+            }
+        };
+        diskWorkQueue = new PhotoPriorityQueue(PRIORITY_HIGH);
+        downloadWorkQueue = new PhotoPriorityQueue(PRIORITY_HIGH);
+        decodeWorkQueue = new PhotoPriorityQueue(PRIORITY_HIGH);
+        for (PhotoPriorityQueue queue : new PhotoPriorityQueue[] {
+                diskWorkQueue, downloadWorkQueue, decodeWorkQueue }) {
+            queue.setMaxSize(builder.maxQueuedTasks);
+            queue.setDropListener(dropListener);
+        }
+        photoTaskWorkQueue = new LinkedBlockingQueue<PhotoTask>();
+        metricsRecorder = new PhotoMetricsRecorder();
+        inFlightTasks = new HashMap<PhotoRequestKey, PhotoTask>();
+        targetRequests = new WeakHashMap<PhotoTarget, PhotoRequest>();
+        fetchers = new HashMap<String, PhotoFetcher>(builder.fetchers);
+        pausedTags = new HashMap<Object, Boolean>();
+        pausedDownloads = new ArrayList<PhotoTask>();
+        pausedDecodes = new ArrayList<PhotoTask>();
+        // Pool threads are only started as work arrives and exit again
+        // after the keep-alive, so an idle manager holds no threads.
+        diskThreadPool = new ThreadPoolExecutor(builder.diskThreads,
+                builder.diskThreads, builder.keepAliveTime,
+                builder.keepAliveUnit, diskWorkQueue, builder.threadFactory);
+        downloadThreadPool = new ThreadPoolExecutor(builder.downloadThreads,
+                builder.downloadThreads, builder.keepAliveTime,
+                builder.keepAliveUnit, downloadWorkQueue,
+                builder.threadFactory) {
+            @Override
+            protected void afterExecute(Runnable runnable, Throwable throwable) {
+                hostScheduler.finished(runnable);
+            }
+        };
+        hostScheduler = new PhotoHostScheduler(downloadThreadPool,
+                builder.maxDownloadsPerHost, dropListener);
+        hostScheduler.setMaxQueuedPerHost(builder.maxQueuedTasks);
+
+        decodeThreadPool = new ThreadPoolExecutor(builder.decodeThreads,
+                builder.decodeThreads, builder.keepAliveTime,
+                builder.keepAliveUnit, decodeWorkQueue, builder.threadFactory);
+        for (ThreadPoolExecutor pool : new ThreadPoolExecutor[] {
+                diskThreadPool, downloadThreadPool, decodeThreadPool }) {
+            pool.allowCoreThreadTimeOut(true);
+        }
+
+        concurrencyController = new PhotoConcurrencyController(
+                downloadThreadPool, Math.min(MIN_DOWNLOAD_POOL_SIZE,
+                        builder.downloadThreads), Math.max(
+                        MAX_DOWNLOAD_POOL_SIZE, builder.downloadThreads),
+                decodeThreadPool, MIN_DECODE_POOL_SIZE, builder.decodeThreads);
+
+        bitmapPool = new PhotoBitmapPool(builder.bitmapPoolSize);
+        byteArrayPool = new PhotoByteArrayPool(BYTE_SEGMENT_SIZE,
+                MAX_POOLED_BYTE_SEGMENTS);
+
+        photoCache = newPhotoCache(builder.imageCacheSize);
+        bitmapCache = newBitmapCache(builder.bitmapCacheSize);
+
+        handler = new Handler(Looper.getMainLooper());
+        deliveryQueue = new PhotoDeliveryQueue(handler,
+                new PhotoDeliveryQueue.Receiver() {
+                    @Override
+                    public void deliver(PhotoTask photoTask, int state) {
+                        deliverState(photoTask, state);
+                    }
+                }, TimeUnit.MILLISECONDS.toNanos(DELIVERY_FRAME_BUDGET));
+
+        bitmapCacheBudget = builder.bitmapCacheSize;
+        photoCacheBudget = builder.imageCacheSize;
+        diskCacheDir = builder.diskCacheDir;
+        diskCacheSize = builder.diskCacheSize;
+        if (builder.context != null) {
+            registerLocalFetchers(builder.context);
+            registerMemoryCallbacks(builder.context);
+        }
     }
 
-    private PhotoManager() {
-        downloadWorkQueue = new LinkedBlockingQueue<Runnable>();
-        decodeWorkQueue = new LinkedBlockingQueue<Runnable>();
-        photoTaskWorkQueue = new LinkedBlockingQueue<PhotoTask>();
-        downloadThreadPool = new ThreadPoolExecutor(CORE_POOL_SIZE,
-                MAXIMUM_POOL_SIZE, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT,
-                downloadWorkQueue);
+    private void deliverState(PhotoTask photoTask, int state) {
+        boolean finished = PhotoDeliveryQueue.isFinalState(state);
+        if (finished) {
+            removeInFlightTask(photoTask);
+            if (state == TASK_COMPLETE
+                    || (state == DOWNLOAD_FAILED && !photoTask.isCancelled())) {
+                recordTimings(photoTask.getTimings(state == TASK_COMPLETE));
+            }
+        }
+
+        List<PhotoTarget> photoTargets = new ArrayList<PhotoTarget>();
+        for (PhotoTarget photoTarget : photoTask.getPhotoTargets()) {
+            if (photoTask.isRequestedBy(photoTarget)) {
+                photoTargets.add(photoTarget);
+            }
+        }
+        if (finished) {
+            for (PhotoTarget photoTarget : photoTargets) {
+                removeTargetRequest(photoTarget, photoTask.getRequestKey());
+            }
+        }
+
+        for (PhotoTarget photoTarget : photoTargets) {
+            switch (state) {
+                case TASK_COMPLETE:
+                    photoTarget.onPhotoLoaded(photoTask.getImage());
+                    break;
+                case TASK_DROPPED:
+                    photoTarget.onPhotoDropped();
+                    break;
+                default:
+                    photoTarget.onPhotoStatus(state);
+                    break;
+            }
+        }
+
+        if (finished) {
+            recycleTask(photoTask);
+        }
+    }
+
+    /**
+     * The manager behind the static methods, built with default settings on
+     * first use unless one was installed with {@link #setInstance}.
+     */
+    public static PhotoManager getInstance() {
+        PhotoManager instance = sInstance;
+        if (instance == null) {
+            synchronized (PhotoManager.class) {
+                if (sInstance == null) {
+                    sInstance = new Builder().build();
+                }
+                instance = sInstance;
+            }
+        }
+        return instance;
+    }
+
+    public static void setInstance(PhotoManager photoManager) {
+        if (photoManager == null) {
+            throw new IllegalArgumentException("PhotoManager must not be null");
+        }
+        synchronized (PhotoManager.class) {
+            if (sInstance != null) {
+                throw new IllegalStateException(
+                        "The default PhotoManager is already in use");
+            }
+            sInstance = photoManager;
+        }
+    }
+
+    public static void init(Context context) {
+        getInstance().attachContext(context);
+    }
+
+    /**
+     * Sizes the memory budgets for the device and registers the local
+     * fetchers not already added, the trim memory callbacks and a disk
+     * cache in the app's cache directory. A manager other than the default
+     * one needs a disk cache directory of its own, so set one afterwards
+     * with {@link #useDiskCache}.
+     */
+    public void attachContext(Context context) {
+        Context appContext = context.getApplicationContext();
+        updateMemoryBudgets(appContext);
+        registerMemoryCallbacks(appContext);
+        registerLocalFetchers(appContext);
+        useDiskCache(new File(appContext.getCacheDir(), DISK_CACHE_DIR),
+                DISK_CACHE_SIZE);
+    }
+
+    private void registerMemoryCallbacks(Context appContext) {
+        synchronized (memoryCallbacks) {
+            if (!memoryCallbacksRegistered) {
+                appContext.registerComponentCallbacks(memoryCallbacks);
+                memoryCallbacksRegistered = true;
+            }
+        }
+    }
+
+    private void registerLocalFetchers(Context appContext) {
+        PhotoFetcher contentFetcher = PhotoFetchers.content(appContext
+                .getContentResolver());
+        synchronized (fetchers) {
+            if (!fetchers.containsKey(PhotoFetchers.SCHEME_CONTENT)) {
+                fetchers.put(PhotoFetchers.SCHEME_CONTENT, contentFetcher);
+            }
+            if (!fetchers.containsKey(PhotoFetchers.SCHEME_ANDROID_RESOURCE)) {
+                fetchers.put(PhotoFetchers.SCHEME_ANDROID_RESOURCE,
+                        contentFetcher);
+            }
+            if (!fetchers.containsKey(PhotoFetchers.SCHEME_ASSET)) {
+                fetchers.put(PhotoFetchers.SCHEME_ASSET,
+                        PhotoFetchers.assets(appContext.getAssets()));
+            }
+        }
+    }
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trim(level);
+        }
 
-        decodeThreadPool = new ThreadPoolExecutor(NUMBER_OF_CORES,
-                NUMBER_OF_CORES, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT,
-                decodeWorkQueue);
+        @Override
+        public void onLowMemory() {
+            trim(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
+    private void updateMemoryBudgets(Context context) {
+        ActivityManager activityManager = (ActivityManager) context
+                .getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = activityManager.getMemoryClass();
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0) {
+            memoryClass = activityManager.getLargeMemoryClass();
+        }
+        long heapSize = memoryClass * 1024L * 1024L;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && activityManager.isLowRamDevice()) {
+            heapSize /= 2;
+        }
+        updateMemoryBudgets((int) (heapSize / BITMAP_CACHE_HEAP_DIVISOR),
+                (int) (heapSize / IMAGE_CACHE_HEAP_DIVISOR),
+                (int) (heapSize / BITMAP_POOL_HEAP_DIVISOR));
+    }
+
+    public static void setMemoryBudgets(int bitmapCacheSize,
+            int imageCacheSize, int bitmapPoolSize) {
+        getInstance().updateMemoryBudgets(bitmapCacheSize, imageCacheSize,
+                bitmapPoolSize);
+    }
+
+    public void updateMemoryBudgets(int bitmapCacheSize, int imageCacheSize,
+            int bitmapPoolSize) {
+        if (bitmapCacheSize < 0 || imageCacheSize < 0 || bitmapPoolSize < 0) {
+            throw new IllegalArgumentException("Memory budgets must be >= 0");
+        }
+        resizeMemoryCaches(bitmapCacheSize, imageCacheSize);
+        bitmapPool.setMaxSize(bitmapPoolSize);
+        Log.i(LOG_TAG, "Memory budgets: bitmaps " + bitmapCacheSize
+                + ", images " + imageCacheSize + ", pool " + bitmapPoolSize);
+    }
 
-        photoCache = new LruCache<URL, byte[]>(IMAGE_CACHE_SIZE) {
+    private static LruCache<PhotoRequestKey, byte[]> newPhotoCache(
+            int maxSize) {
+        // LruCache rejects 0; a one byte cache holds nothing.
+        return new LruCache<PhotoRequestKey, byte[]>(Math.max(1, maxSize)) {
             @Override
-            protected int sizeOf(URL paramURL, byte[] paramArrayOfByte) {
+            protected int sizeOf(PhotoRequestKey key, byte[] paramArrayOfByte) {
                 return paramArrayOfByte.length;
             }
         };
+    }
 
-        handler = new Handler(Looper.getMainLooper()) {
+    private LruCache<PhotoRequestKey, Bitmap> newBitmapCache(int maxSize) {
+        return new LruCache<PhotoRequestKey, Bitmap>(Math.max(1, maxSize)) {
             @Override
-            public void handleMessage(Message inputMessage) {
-                PhotoTask photoTask = (PhotoTask) inputMessage.obj;
-                PhotoView localView = photoTask.getPhotoView();
-                if (localView != null) {
-                    URL localURL = localView.getLocation();
-                    if (photoTask.getImageURL() == localURL)
-                        switch (inputMessage.what) {
-                            case DOWNLOAD_STARTED:
-                                localView
-                                        .setStatusResource(R.drawable.imagedownloading);
-                                break;
-                            case DOWNLOAD_COMPLETE:
-                                localView
-                                        .setStatusResource(R.drawable.decodequeued);
-                                break;
-                            case DECODE_STARTED:
-                                localView
-                                        .setStatusResource(R.drawable.decodedecoding);
-                                break;
-                            case TASK_COMPLETE:
-                                localView.setImageBitmap(photoTask.getImage());
-                                recycleTask(photoTask);
-                                break;
-                            case DOWNLOAD_FAILED:
-                                localView
-                                        .setStatusResource(R.drawable.imagedownloadfailed);
-                                recycleTask(photoTask);
-                                break;
-                            default:
-                                super.handleMessage(inputMessage);
-                        }
+            protected int sizeOf(PhotoRequestKey key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, PhotoRequestKey key,
+                    Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    bitmapPool.release(oldValue);
                 }
             }
         };
     }
 
-    public static PhotoManager getInstance() {
-        return sInstance;
+    /**
+     * The bundled LruCache has no resize(), so the caches are rebuilt at the
+     * new size, oldest entries first; whatever no longer fits is evicted
+     * through the new cache and its bitmaps go back to the pool.
+     */
+    private void resizeMemoryCaches(int bitmapCacheSize, int imageCacheSize) {
+        synchronized (memoryCacheLock) {
+            bitmapCacheBudget = bitmapCacheSize;
+            photoCacheBudget = imageCacheSize;
+            bitmapCache = copyInto(bitmapCache,
+                    newBitmapCache(bitmapCacheSize));
+            photoCache = copyInto(photoCache, newPhotoCache(imageCacheSize));
+        }
+    }
+
+    private static <V> LruCache<PhotoRequestKey, V> copyInto(
+            LruCache<PhotoRequestKey, V> from,
+            LruCache<PhotoRequestKey, V> to) {
+        for (Map.Entry<PhotoRequestKey, V> entry : from.snapshot().entrySet()) {
+            to.put(entry.getKey(), entry.getValue());
+        }
+        return to;
+    }
+
+    public static int getBitmapCacheBudget() {
+        return getInstance().getBitmapBudget();
+    }
+
+    public static int getImageCacheBudget() {
+        return getInstance().getImageBudget();
+    }
+
+    public int getBitmapBudget() {
+        return bitmapCacheBudget;
+    }
+
+    public int getImageBudget() {
+        return photoCacheBudget;
+    }
+
+    public static void trimMemory(int level) {
+        getInstance().trim(level);
+    }
+
+    public void trim(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            bitmapCache.evictAll();
+            photoCache.evictAll();
+            bitmapPool.evictAll();
+            byteArrayPool.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            bitmapCache.trimToSize(bitmapCacheBudget / 2);
+            photoCache.trimToSize(photoCacheBudget / 2);
+            bitmapPool.evictAll();
+            byteArrayPool.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            bitmapPool.evictAll();
+            byteArrayPool.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            bitmapPool.trimToSize(bitmapPool.maxSize() / 2);
+        }
+    }
+
+    public static void registerFetcher(String scheme, PhotoFetcher fetcher) {
+        getInstance().addFetcher(scheme, fetcher);
+    }
+
+    /**
+     * Sends requests for the scheme to fetcher; null removes the scheme.
+     */
+    public void addFetcher(String scheme, PhotoFetcher fetcher) {
+        synchronized (fetchers) {
+            if (fetcher == null) {
+                fetchers.remove(scheme);
+            } else {
+                fetchers.put(scheme, fetcher);
+            }
+        }
+    }
+
+    public static PhotoFetcher getFetcher(String scheme) {
+        return getInstance().findFetcher(scheme);
+    }
+
+    public PhotoFetcher findFetcher(String scheme) {
+        synchronized (fetchers) {
+            return fetchers.get(scheme);
+        }
+    }
+
+    PhotoFetcher getFetcher(Uri uri) {
+        String scheme = uri.getScheme();
+        synchronized (fetchers) {
+            return scheme == null ? null : fetchers.get(scheme.toLowerCase());
+        }
+    }
+
+    public static void setDiskCache(File directory, long maxSize) {
+        getInstance().useDiskCache(directory, maxSize);
+    }
+
+    /**
+     * Closes the current disk cache; the new one is opened on first use.
+     */
+    public void useDiskCache(File directory, long maxSize) {
+        synchronized (diskCacheLock) {
+            if (diskCache != null) {
+                try {
+                    diskCache.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                diskCache = null;
+            }
+            diskCacheDir = directory;
+            diskCacheSize = maxSize;
+        }
+    }
+
+    PhotoDiskCache getDiskCache() {
+        PhotoDiskCache cache = diskCache;
+        if (cache != null || diskCacheDir == null) {
+            return cache;
+        }
+        synchronized (diskCacheLock) {
+            if (diskCache == null && diskCacheDir != null) {
+                try {
+                    diskCache = PhotoDiskCache.open(diskCacheDir,
+                            diskCacheSize);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Unable to open disk cache in "
+                            + diskCacheDir, e);
+                    diskCacheDir = null;
+                }
+            }
+            return diskCache;
+        }
+    }
+
+    boolean hasDiskCache() {
+        return diskCacheDir != null;
+    }
+
+    PhotoByteArrayPool getByteArrayPool() {
+        return byteArrayPool;
+    }
+
+    public static PhotoBitmapPool getBitmapPool() {
+        return getInstance().getPool();
+    }
+
+    /**
+     * The bitmap pool of this manager, which is where photos it delivers
+     * must be acquired and released.
+     */
+    public PhotoBitmapPool getPool() {
+        return bitmapPool;
+    }
+
+    public static PhotoCacheStats getCacheStats() {
+        return getInstance().snapshotCacheStats();
+    }
+
+    public PhotoCacheStats snapshotCacheStats() {
+        PhotoDiskCache cache = diskCache;
+        return new PhotoCacheStats(bitmapCache.hitCount(),
+                bitmapCache.missCount(), photoCache.hitCount(),
+                photoCache.missCount(), cache == null ? 0 : cache.hitCount(),
+                cache == null ? 0 : cache.missCount());
+    }
+
+    static PhotoRequestKey getRequestKey(String url, int width, int height,
+            Bitmap.Config config) {
+        return new PhotoRequestKey(url, width, height, config.name());
+    }
+
+    /**
+     * Limits and the fallback are part of the key, so a limited request
+     * never shares a task or a cached bitmap with an unlimited one.
+     */
+    static PhotoRequestKey getRequestKey(String url, int width, int height,
+            Bitmap.Config config, List<PhotoTransformation> transformations,
+            long maxPixels, long maxBytes, Uri fallbackUri) {
+        boolean limited = maxPixels > 0 || maxBytes > 0 || fallbackUri != null;
+        if (transformations.isEmpty() && !limited) {
+            return getRequestKey(url, width, height, config);
+        }
+        StringBuilder variant = new StringBuilder(config.name());
+        for (PhotoTransformation transformation : transformations) {
+            variant.append('|').append(transformation.getKey());
+        }
+        if (limited) {
+            variant.append("|limit=").append(Math.max(0, maxPixels))
+                    .append(',').append(Math.max(0, maxBytes));
+            if (fallbackUri != null) {
+                variant.append("|fallback=").append(fallbackUri);
+            }
+        }
+        return new PhotoRequestKey(url, width, height, variant.toString());
     }
 
     public void handleState(PhotoTask photoTask, int state) {
+        if (state == TASK_COMPLETE || state == DOWNLOAD_FAILED) {
+            photoTask.markFinished();
+        } else if (photoTask.isCancelled()) {
+            if (state == DISK_CACHE_MISS || state == DOWNLOAD_COMPLETE) {
+                deliveryQueue.post(photoTask, TASK_DROPPED);
+            }
+            return;
+        }
         switch (state) {
             case TASK_COMPLETE:
-                if (photoTask.isCacheEnabled()) {
-                    photoCache.put(photoTask.getImageURL(),
-                            photoTask.getByteBuffer());
+                if (photoTask.isMemoryCacheEnabled()) {
+                    // Held so a put cannot land in a cache being rebuilt.
+                    synchronized (memoryCacheLock) {
+                        if (null != photoTask.getByteBuffer()) {
+                            photoCache.put(photoTask.getSourceKey(),
+                                    photoTask.getByteBuffer());
+                        }
+                        bitmapPool.acquire(photoTask.getImage());
+                        bitmapCache.put(photoTask.getRequestKey(),
+                                photoTask.getImage());
+                    }
                 }
-                Message completeMessage = handler.obtainMessage(state,
-                        photoTask);
-                completeMessage.sendToTarget();
+                photoTask.getImage().prepareToDraw();
+                deliveryQueue.post(photoTask, state);
+                break;
+            case DISK_CACHE_MISS:
+                executeDownload(photoTask);
                 break;
             case DOWNLOAD_COMPLETE:
-                decodeThreadPool.execute(photoTask.getPhotoDecodeRunnable());
+                if (photoTask.isDiskCacheEnabled()) {
+                    writeDiskCache(photoTask);
+                }
+                executeDecode(photoTask);
             default:
-                handler.obtainMessage(state, photoTask).sendToTarget();
+                deliveryQueue.post(photoTask, state);
                 break;
         }
 
     }
 
+    /**
+     * Hands the write to the disk pool so the download thread is free for
+     * the next transfer. The task is recycled once it is decoded, so the
+     * write takes what it needs from the task up front.
+     */
+    private void writeDiskCache(PhotoTask photoTask) {
+        int dataSource = photoTask.getDataSource();
+        if ((dataSource != SOURCE_NETWORK && dataSource != SOURCE_REVALIDATED)
+                || !hasDiskCache()) {
+            return;
+        }
+        diskThreadPool.execute(new DiskWriteRunnable(
+                photoTask.getDiskCacheKey(),
+                dataSource == SOURCE_NETWORK ? photoTask.getByteBuffer() : null,
+                photoTask.getCacheHeaders(), taskSequence.incrementAndGet()));
+    }
+
+    private class DiskWriteRunnable implements Runnable,
+            PhotoPriorityQueue.Prioritized {
+
+        private final String key;
+        private final byte[] data;
+        private final PhotoCacheHeaders headers;
+        private final long sequence;
+
+        /**
+         * data is null when a revalidation left the cached body in place
+         * and only the headers change.
+         */
+        DiskWriteRunnable(String key, byte[] data, PhotoCacheHeaders headers,
+                long sequence) {
+            this.key = key;
+            this.data = data;
+            this.headers = headers;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            android.os.Process
+                    .setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            PhotoDiskCache cache = getDiskCache();
+            if (cache == null) {
+                return;
+            }
+            cache.removePartial(key);
+            if (headers != null && headers.isNoStore()) {
+                cache.remove(key);
+                return;
+            }
+            if (data != null && !cache.put(key, data)) {
+                return;
+            }
+            if (headers != null) {
+                cache.putMetadata(key, headers.encode());
+            }
+        }
+
+        /**
+         * The body is already in memory and would be lost if the write were
+         * dropped, so it runs at the protected priority.
+         */
+        @Override
+        public int getPriority() {
+            return PRIORITY_HIGH;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
     public static void cancelAll() {
-        PhotoTask[] taskArray = new PhotoTask[sInstance.downloadWorkQueue
-                .size()];
-        sInstance.downloadWorkQueue.toArray(taskArray);
-        int taskArraylen = taskArray.length;
-        synchronized (sInstance) {
-            for (int taskArrayIndex = 0; taskArrayIndex < taskArraylen; taskArrayIndex++) {
-                Thread thread = taskArray[taskArrayIndex].threadThis;
-                if (null != thread) {
-                    thread.interrupt();
-                }
+        getInstance().cancelAllRequests();
+    }
+
+    public void cancelAllRequests() {
+        Map<PhotoTask, Integer> photoTasks = getInFlightGenerations();
+        for (Map.Entry<PhotoTask, Integer> entry : photoTasks.entrySet()) {
+            PhotoTask photoTask = entry.getKey();
+            for (PhotoTarget photoTarget : photoTask.getPhotoTargets()) {
+                removeTargetRequest(photoTarget, photoTask.getRequestKey());
             }
+            cancelTask(photoTask, entry.getValue());
         }
     }
 
-    static public void removeDownload(PhotoTask downloaderTask, URL pictureURL) {
-        if (downloaderTask != null
-                && downloaderTask.getImageURL().equals(pictureURL)) {
-            synchronized (sInstance) {
-                Thread thread = downloaderTask.getCurrentThread();
-                if (null != thread)
-                    thread.interrupt();
+    private Map<PhotoTask, Integer> getInFlightGenerations() {
+        Map<PhotoTask, Integer> photoTasks = new IdentityHashMap<PhotoTask, Integer>();
+        synchronized (inFlightTasks) {
+            for (PhotoTask photoTask : inFlightTasks.values()) {
+                photoTasks.put(photoTask, photoTask.getGeneration());
             }
-            sInstance.downloadThreadPool.remove(downloaderTask
-                    .getHTTPDownloadRunnable());
         }
+        return photoTasks;
+    }
+
+    public static void cancelTag(Object tag) {
+        getInstance().cancelByTag(tag);
     }
 
-    static public PhotoTask startDownload(PhotoView imageView, boolean cacheFlag) {
-        PhotoTask downloadTask = sInstance.photoTaskWorkQueue.poll();
-        if (null == downloadTask) {
-            downloadTask = new PhotoTask();
+    public static void cancelGroup(Object group) {
+        getInstance().cancelByGroup(group);
+    }
+
+    public void cancelByTag(Object tag) {
+        cancelRequests(tag, null);
+    }
+
+    public void cancelByGroup(Object group) {
+        cancelRequests(null, group);
+    }
+
+    private void cancelRequests(Object tag, Object group) {
+        List<PhotoTarget> cancelledTargets = new ArrayList<PhotoTarget>();
+        synchronized (targetRequests) {
+            Iterator<Map.Entry<PhotoTarget, PhotoRequest>> i = targetRequests
+                    .entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<PhotoTarget, PhotoRequest> entry = i.next();
+                PhotoRequest request = entry.getValue();
+                if ((tag != null && tag.equals(request.getTag()))
+                        || (group != null && group.equals(request.getGroup()))) {
+                    cancelledTargets.add(entry.getKey());
+                    i.remove();
+                }
+            }
+        }
+
+        Map<PhotoTask, Integer> photoTasks = getInFlightGenerations();
+        for (Map.Entry<PhotoTask, Integer> entry : photoTasks.entrySet()) {
+            PhotoTask photoTask = entry.getKey();
+            List<PhotoTarget> waiters = photoTask.getPhotoTargets();
+            waiters.retainAll(cancelledTargets);
+            for (PhotoTarget photoTarget : waiters) {
+                photoTask.removePhotoTarget(photoTarget);
+            }
+            if ((!waiters.isEmpty() && !photoTask.isWanted())
+                    || photoTask.isCancelledBy(tag)) {
+                cancelTask(photoTask, entry.getValue());
+            }
         }
+    }
+
+    private void cancelTask(PhotoTask photoTask, int generation) {
+        if (!photoTask.cancel(generation, diskThreadPool)) {
+            return;
+        }
+        removeInFlightTask(photoTask);
+        if (removePausedTask(photoTask)
+                || diskThreadPool.remove(photoTask.getDiskRunnable())
+                || hostScheduler.remove(photoTask.getHTTPDownloadRunnable())
+                || decodeThreadPool.remove(photoTask.getPhotoDecodeRunnable())) {
+            deliveryQueue.post(photoTask, TASK_DROPPED);
+        }
+    }
+
+    static public void removeDownload(PhotoTask downloaderTask,
+            int generation, PhotoTarget photoTarget) {
+        getInstance().dequeue(downloaderTask, generation, photoTarget);
+    }
 
-        downloadTask.initializeDownloaderTask(PhotoManager.sInstance,
-                imageView, cacheFlag);
+    /**
+     * Detaches photoTarget from the task and cancels the task once nothing
+     * else is waiting on it. generation is the task's generation when the
+     * target was enqueued; a task recycled since then belongs to another
+     * request and is left alone.
+     */
+    public void dequeue(PhotoTask downloaderTask, int generation,
+            PhotoTarget photoTarget) {
+        synchronized (targetRequests) {
+            targetRequests.remove(photoTarget);
+        }
+        if (downloaderTask == null
+                || downloaderTask.getGeneration() != generation
+                || downloaderTask.removePhotoTarget(photoTarget) > 0
+                || downloaderTask.isPrefetch()) {
+            return;
+        }
+        cancelTask(downloaderTask, generation);
+    }
 
-        downloadTask.setByteBuffer(sInstance.photoCache.get(downloadTask
-                .getImageURL()));
+    public static PhotoTask load(PhotoRequest request, PhotoTarget photoTarget) {
+        return getInstance().enqueue(request, photoTarget);
+    }
 
-        if (null == downloadTask.getByteBuffer()) {
-            sInstance.downloadThreadPool.execute(downloadTask
-                    .getHTTPDownloadRunnable());
-            imageView.setStatusResource(R.drawable.imagequeued);
-        } else {
-            sInstance.handleState(downloadTask, DOWNLOAD_COMPLETE);
+    public PhotoTask enqueue(PhotoRequest request, PhotoTarget photoTarget) {
+        request = request.resolveSize(photoTarget);
+        PhotoRequestKey requestKey = request.getKey();
+        if (getFetcher(request.getUri()) == null) {
+            Log.w(LOG_TAG, "No fetcher for " + request.getUri());
+            synchronized (targetRequests) {
+                targetRequests.remove(photoTarget);
+            }
+            photoTarget.onPhotoStatus(DOWNLOAD_FAILED);
+            return null;
+        }
+        if (request.isMemoryCacheEnabled()) {
+            Bitmap bitmap = bitmapCache.get(requestKey);
+            if (bitmap != null) {
+                metricsRecorder.recordBitmapHit();
+                synchronized (targetRequests) {
+                    targetRequests.remove(photoTarget);
+                }
+                photoTarget.onPhotoLoaded(bitmap);
+                return null;
+            }
+        }
+
+        synchronized (targetRequests) {
+            targetRequests.put(photoTarget, request);
+        }
+
+        PhotoTask downloadTask;
+        synchronized (inFlightTasks) {
+            downloadTask = inFlightTasks.get(requestKey);
+            if (null != downloadTask) {
+                downloadTask.addPhotoTarget(photoTarget, request);
+                photoTarget.onPhotoStatus(TASK_QUEUED);
+                return downloadTask;
+            }
+
+            downloadTask = photoTaskWorkQueue.poll();
+            if (null == downloadTask) {
+                downloadTask = new PhotoTask();
+            }
+
+            downloadTask.initializeDownloaderTask(this, photoTarget, request,
+                    taskSequence.incrementAndGet());
+            inFlightTasks.put(requestKey, downloadTask);
+        }
+
+        if (dispatchTask(downloadTask)) {
+            photoTarget.onPhotoStatus(TASK_QUEUED);
         }
         return downloadTask;
     }
 
+    PhotoRequest getTargetRequest(PhotoTarget photoTarget) {
+        synchronized (targetRequests) {
+            return targetRequests.get(photoTarget);
+        }
+    }
+
+    void updateTargetRequest(PhotoTarget photoTarget, PhotoRequest request) {
+        synchronized (targetRequests) {
+            PhotoRequest current = targetRequests.get(photoTarget);
+            if (current != null && current.getKey().equals(request.getKey())) {
+                targetRequests.put(photoTarget, request);
+            }
+        }
+    }
+
+    private void removeTargetRequest(PhotoTarget photoTarget,
+            PhotoRequestKey requestKey) {
+        synchronized (targetRequests) {
+            PhotoRequest current = targetRequests.get(photoTarget);
+            if (current != null && current.getKey().equals(requestKey)) {
+                targetRequests.remove(photoTarget);
+            }
+        }
+    }
+
+    public static void prefetch(Collection<URL> urls, int targetWidth,
+            int targetHeight) {
+        getInstance().enqueuePrefetch(urls, targetWidth, targetHeight);
+    }
+
+    /**
+     * Loads the URLs into the memory caches at low priority, skipping any
+     * already cached or in flight.
+     */
+    public void enqueuePrefetch(Collection<URL> urls, int targetWidth,
+            int targetHeight) {
+        for (URL url : urls) {
+            if (url == null) {
+                continue;
+            }
+            Uri uri = Uri.parse(url.toExternalForm());
+            PhotoFetcher fetcher = getFetcher(uri);
+            if (fetcher == null) {
+                continue;
+            }
+            PhotoRequestKey requestKey = getRequestKey(uri.toString(),
+                    targetWidth, targetHeight, DEFAULT_BITMAP_CONFIG);
+            if (bitmapCache.get(requestKey) != null) {
+                continue;
+            }
+
+            PhotoTask prefetchTask;
+            synchronized (inFlightTasks) {
+                if (inFlightTasks.containsKey(requestKey)) {
+                    continue;
+                }
+                prefetchTask = photoTaskWorkQueue.poll();
+                if (null == prefetchTask) {
+                    prefetchTask = new PhotoTask();
+                }
+                prefetchTask.initializePrefetchTask(this, uri, fetcher,
+                        requestKey, taskSequence.incrementAndGet());
+                inFlightTasks.put(requestKey, prefetchTask);
+            }
+            dispatchTask(prefetchTask);
+        }
+    }
+
+    public static long getAverageDownloadLatency() {
+        return getInstance().getDownloadLatency();
+    }
+
+    /**
+     * The smoothed latency of recent successful downloads in milliseconds,
+     * or 0 before the first one.
+     */
+    public long getDownloadLatency() {
+        return averageDownloadLatency;
+    }
+
+    void recordDownload(long latencyMillis, long bytes, boolean failed) {
+        if (!failed) {
+            long average = averageDownloadLatency;
+            averageDownloadLatency = average == 0 ? latencyMillis
+                    : (average * (LATENCY_SMOOTHING - 1) + latencyMillis)
+                            / LATENCY_SMOOTHING;
+        }
+        if (concurrencyController.recordDownload(latencyMillis, bytes, failed,
+                hostScheduler.getPendingCount() + downloadWorkQueue.size())) {
+            hostScheduler.schedule();
+        }
+    }
+
+    void recordDecodeTime(long decodeMillis) {
+        concurrencyController.recordDecode(decodeMillis,
+                decodeWorkQueue.size());
+    }
+
+    private void recordTimings(PhotoTimings timings) {
+        metricsRecorder.record(timings);
+        PhotoMetrics.Listener listener = metricsListener;
+        if (listener != null) {
+            listener.onPhotoTimings(timings);
+        }
+    }
+
+    public static PhotoMetrics getMetrics() {
+        return getInstance().snapshotMetrics();
+    }
+
+    public PhotoMetrics snapshotMetrics() {
+        return metricsRecorder.snapshot();
+    }
+
+    public static void resetMetrics() {
+        getInstance().clearMetrics();
+    }
+
+    public void clearMetrics() {
+        metricsRecorder.reset();
+    }
+
+    public static void setMetricsListener(PhotoMetrics.Listener listener) {
+        getInstance().useMetricsListener(listener);
+    }
+
+    public void useMetricsListener(PhotoMetrics.Listener listener) {
+        metricsListener = listener;
+    }
+
+    public static void setDeliveryFrameBudget(long budgetMillis) {
+        getInstance().useDeliveryFrameBudget(budgetMillis);
+    }
+
+    public void useDeliveryFrameBudget(long budgetMillis) {
+        deliveryQueue.setFrameBudget(TimeUnit.MILLISECONDS
+                .toNanos(budgetMillis));
+    }
+
+    public static void setStatusUpdatesEnabled(boolean enabled) {
+        getInstance().enableStatusUpdates(enabled);
+    }
+
+    public void enableStatusUpdates(boolean enabled) {
+        deliveryQueue.setStatusUpdatesEnabled(enabled);
+    }
+
+    public static void setAdaptiveConcurrency(boolean enabled) {
+        getInstance().enableAdaptiveConcurrency(enabled);
+    }
+
+    public void enableAdaptiveConcurrency(boolean enabled) {
+        concurrencyController.setEnabled(enabled);
+    }
+
+    public static void setDownloadPoolBounds(int minThreads, int maxThreads) {
+        getInstance().boundDownloadPool(minThreads, maxThreads);
+    }
+
+    public void boundDownloadPool(int minThreads, int maxThreads) {
+        concurrencyController.setDownloadBounds(minThreads, maxThreads);
+        hostScheduler.schedule();
+    }
+
+    public static void setDecodePoolBounds(int minThreads, int maxThreads) {
+        getInstance().boundDecodePool(minThreads, maxThreads);
+    }
+
+    public void boundDecodePool(int minThreads, int maxThreads) {
+        concurrencyController.setDecodeBounds(minThreads, maxThreads);
+    }
+
+    private boolean dispatchTask(PhotoTask photoTask) {
+        if (photoTask.isMemoryCacheEnabled()) {
+            photoTask.setByteBuffer(photoCache.get(photoTask.getSourceKey()));
+        }
+
+        if (null == photoTask.getByteBuffer()) {
+            if (photoTask.isDiskCacheEnabled() && !photoTask.isLocal()
+                    && hasDiskCache()) {
+                photoTask.markQueued();
+                diskThreadPool.execute(photoTask.getDiskRunnable());
+            } else {
+                executeDownload(photoTask);
+            }
+            return true;
+        }
+        photoTask.setDataSource(SOURCE_MEMORY);
+        handleState(photoTask, DOWNLOAD_COMPLETE);
+        return false;
+    }
+
+    public static void pause(Object tag) {
+        getInstance().pauseByTag(tag, false);
+    }
+
+    public static void pause(Object tag, boolean includeDownloads) {
+        getInstance().pauseByTag(tag, includeDownloads);
+    }
+
+    public static void resume(Object tag) {
+        getInstance().resumeByTag(tag);
+    }
+
+    public void pauseByTag(Object tag, boolean includeDownloads) {
+        synchronized (pausedTags) {
+            pausedTags.put(tag, includeDownloads);
+        }
+    }
+
+    public void resumeByTag(Object tag) {
+        List<PhotoTask> downloads = new ArrayList<PhotoTask>();
+        List<PhotoTask> decodes = new ArrayList<PhotoTask>();
+        synchronized (pausedTags) {
+            if (pausedTags.remove(tag) == null) {
+                return;
+            }
+            takeResumable(pausedDownloads, downloads, true);
+            takeResumable(pausedDecodes, decodes, false);
+        }
+
+        for (PhotoTask photoTask : downloads) {
+            if (photoTask.isWantedOnScreen()) {
+                executeDownload(photoTask);
+            } else {
+                deliveryQueue.post(photoTask, TASK_DROPPED);
+            }
+        }
+        for (PhotoTask photoTask : decodes) {
+            if (photoTask.isWantedOnScreen()) {
+                executeDecode(photoTask);
+            } else {
+                deliveryQueue.post(photoTask, TASK_DROPPED);
+            }
+        }
+    }
+
+    private void takeResumable(List<PhotoTask> pausedTasks,
+            List<PhotoTask> resumable, boolean download) {
+        Iterator<PhotoTask> i = pausedTasks.iterator();
+        while (i.hasNext()) {
+            PhotoTask photoTask = i.next();
+            if (!photoTask.isPausedBy(pausedTags, download)) {
+                i.remove();
+                resumable.add(photoTask);
+            }
+        }
+    }
+
+    private boolean removePausedTask(PhotoTask photoTask) {
+        synchronized (pausedTags) {
+            return pausedDownloads.remove(photoTask)
+                    || pausedDecodes.remove(photoTask);
+        }
+    }
+
+    void executeDownload(PhotoTask photoTask) {
+        photoTask.markQueued();
+        synchronized (pausedTags) {
+            if (photoTask.isPausedBy(pausedTags, true)) {
+                pausedDownloads.add(photoTask);
+                return;
+            }
+        }
+        hostScheduler.execute(photoTask.getRequestKey().getHost(),
+                photoTask.getHTTPDownloadRunnable());
+    }
+
+    void executeDecode(PhotoTask photoTask) {
+        photoTask.markQueued();
+        synchronized (pausedTags) {
+            if (photoTask.isPausedBy(pausedTags, false)) {
+                pausedDecodes.add(photoTask);
+                return;
+            }
+        }
+        decodeThreadPool.execute(photoTask.getPhotoDecodeRunnable());
+    }
+
+    /**
+     * The work queues order by the priority a runnable had when it was
+     * queued, so a task whose priority changed is moved within them.
+     */
+    void reprioritize(PhotoTask photoTask) {
+        diskWorkQueue.reprioritize(photoTask.getDiskRunnable());
+        Runnable downloadRunnable = photoTask.getHTTPDownloadRunnable();
+        if (!hostScheduler.reprioritize(downloadRunnable)) {
+            downloadWorkQueue.reprioritize(downloadRunnable);
+        }
+        decodeWorkQueue.reprioritize(photoTask.getPhotoDecodeRunnable());
+    }
+
+    void executeTileDecode(PhotoTileDecoder.TileRunnable tileRunnable) {
+        decodeThreadPool.execute(tileRunnable);
+    }
+
+    long nextSequence() {
+        return taskSequence.incrementAndGet();
+    }
+
+    public static void setLifoScheduling(boolean lifo) {
+        getInstance().useLifoScheduling(lifo);
+    }
+
+    public void useLifoScheduling(boolean lifo) {
+        diskWorkQueue.setLifo(lifo);
+        downloadWorkQueue.setLifo(lifo);
+        decodeWorkQueue.setLifo(lifo);
+        hostScheduler.setLifo(lifo);
+    }
+
+    public static void setMaxQueuedTasks(int maxQueuedTasks) {
+        getInstance().limitQueuedTasks(maxQueuedTasks);
+    }
+
+    public void limitQueuedTasks(int maxQueuedTasks) {
+        diskWorkQueue.setMaxSize(maxQueuedTasks);
+        downloadWorkQueue.setMaxSize(maxQueuedTasks);
+        decodeWorkQueue.setMaxSize(maxQueuedTasks);
+        hostScheduler.setMaxQueuedPerHost(maxQueuedTasks);
+    }
+
+    public static void setMaxDownloadsPerHost(int maxDownloads) {
+        getInstance().limitDownloadsPerHost(maxDownloads);
+    }
+
+    public void limitDownloadsPerHost(int maxDownloads) {
+        hostScheduler.setMaxPerHost(maxDownloads);
+    }
+
+    public static List<PhotoHostStats> getHostStats() {
+        return getInstance().snapshotHostStats();
+    }
+
+    public List<PhotoHostStats> snapshotHostStats() {
+        return hostScheduler.getStats();
+    }
+
+    static public void updatePriority(PhotoTask photoTask) {
+        if (photoTask != null) {
+            photoTask.refreshPriority();
+        }
+    }
+
+    private void dropTask(Runnable runnable) {
+        if (runnable instanceof PhotoTileDecoder.TileRunnable) {
+            ((PhotoTileDecoder.TileRunnable) runnable).drop();
+            return;
+        }
+        PhotoTask photoTask = null;
+        if (runnable instanceof PhotoDiskRunnable) {
+            photoTask = (PhotoTask) ((PhotoDiskRunnable) runnable).photoDiskTask;
+        } else if (runnable instanceof PhotoDownloadRunnable) {
+            photoTask = (PhotoTask) ((PhotoDownloadRunnable) runnable).photoDownTask;
+        } else if (runnable instanceof PhotoDecodeRunnable) {
+            photoTask = (PhotoTask) ((PhotoDecodeRunnable) runnable).mPhotoTask;
+        }
+        if (runnable instanceof PhotoDownloadRunnable) {
+            hostScheduler.finished(runnable);
+        }
+        if (photoTask != null) {
+            Log.d(LOG_TAG, "Dropping stale request for "
+                    + photoTask.getUri());
+            deliveryQueue.post(photoTask, TASK_DROPPED);
+        }
+    }
+
+    void removeInFlightTask(PhotoTask photoTask) {
+        synchronized (inFlightTasks) {
+            PhotoRequestKey requestKey = photoTask.getRequestKey();
+            if (inFlightTasks.get(requestKey) == photoTask) {
+                inFlightTasks.remove(requestKey);
+            }
+        }
+    }
+
     void recycleTask(PhotoTask downloadTask) {
         downloadTask.recycle();
         photoTaskWorkQueue.offer(downloadTask);
     }
+
+    /**
+     * Cancels everything in flight and stops the pools. Meant for managers
+     * made with a {@link Builder} that are no longer needed.
+     */
+    public void shutdown() {
+        for (Map.Entry<PhotoTask, Integer> entry : getInFlightGenerations()
+                .entrySet()) {
+            cancelTask(entry.getKey(), entry.getValue());
+        }
+        diskThreadPool.shutdown();
+        downloadThreadPool.shutdown();
+        decodeThreadPool.shutdown();
+    }
+
+    public static class Builder {
+
+        private Context context;
+        private int diskThreads = DISK_POOL_SIZE;
+        private int downloadThreads = CORE_POOL_SIZE;
+        private int decodeThreads = NUMBER_OF_CORES;
+        private int maxDownloadsPerHost = MAX_DOWNLOADS_PER_HOST;
+        private int maxQueuedTasks = MAX_QUEUED_TASKS;
+        private long keepAliveTime = KEEP_ALIVE_TIME;
+        private TimeUnit keepAliveUnit = KEEP_ALIVE_TIME_UNIT;
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+        private int bitmapCacheSize = BITMAP_CACHE_SIZE;
+        private int imageCacheSize = IMAGE_CACHE_SIZE;
+        private int bitmapPoolSize = BITMAP_POOL_SIZE;
+        private File diskCacheDir;
+        private long diskCacheSize;
+        private final Map<String, PhotoFetcher> fetchers = new HashMap<String, PhotoFetcher>();
+
+        public Builder() {
+            PhotoFetcher httpFetcher = PhotoFetchers.http();
+            fetchers.put(PhotoFetchers.SCHEME_HTTP, httpFetcher);
+            fetchers.put(PhotoFetchers.SCHEME_HTTPS, httpFetcher);
+            fetchers.put(PhotoFetchers.SCHEME_FILE, PhotoFetchers.file());
+            fetchers.put(PhotoLoopbackFetcher.SCHEME,
+                    new PhotoLoopbackFetcher());
+        }
+
+        /**
+         * Registers the content, resource and asset fetchers and the trim
+         * memory callbacks against the application context.
+         */
+        public Builder setContext(Context context) {
+            this.context = context == null ? null : context
+                    .getApplicationContext();
+            return this;
+        }
+
+        public Builder setDiskThreads(int threads) {
+            diskThreads = checkThreads(threads);
+            return this;
+        }
+
+        public Builder setDownloadThreads(int threads) {
+            downloadThreads = checkThreads(threads);
+            return this;
+        }
+
+        public Builder setDecodeThreads(int threads) {
+            decodeThreads = checkThreads(threads);
+            return this;
+        }
+
+        private static int checkThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Threads must be >= 1: "
+                        + threads);
+            }
+            return threads;
+        }
+
+        public Builder setMaxDownloadsPerHost(int maxDownloads) {
+            maxDownloadsPerHost = maxDownloads;
+            return this;
+        }
+
+        public Builder setMaxQueuedTasks(int maxQueuedTasks) {
+            this.maxQueuedTasks = maxQueuedTasks;
+            return this;
+        }
+
+        /**
+         * How long a pool thread may sit idle before it exits.
+         */
+        public Builder setKeepAliveTime(long time, TimeUnit unit) {
+            if (time <= 0) {
+                throw new IllegalArgumentException(
+                        "Keep-alive time must be > 0: " + time);
+            }
+            keepAliveTime = time;
+            keepAliveUnit = unit;
+            return this;
+        }
+
+        public Builder setThreadFactory(ThreadFactory threadFactory) {
+            if (threadFactory == null) {
+                throw new IllegalArgumentException(
+                        "Thread factory must not be null");
+            }
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        public Builder setMemoryBudgets(int bitmapCacheSize,
+                int imageCacheSize, int bitmapPoolSize) {
+            if (bitmapCacheSize < 0 || imageCacheSize < 0
+                    || bitmapPoolSize < 0) {
+                throw new IllegalArgumentException(
+                        "Memory budgets must be >= 0");
+            }
+            this.bitmapCacheSize = bitmapCacheSize;
+            this.imageCacheSize = imageCacheSize;
+            this.bitmapPoolSize = bitmapPoolSize;
+            return this;
+        }
+
+        /**
+         * Each manager needs a directory of its own; two disk caches must
+         * not share one.
+         */
+        public Builder setDiskCache(File directory, long maxSize) {
+            diskCacheDir = directory;
+            diskCacheSize = maxSize;
+            return this;
+        }
+
+        public Builder registerFetcher(String scheme, PhotoFetcher fetcher) {
+            if (fetcher == null) {
+                fetchers.remove(scheme);
+            } else {
+                fetchers.put(scheme, fetcher);
+            }
+            return this;
+        }
+
+        public PhotoManager build() {
+            return new PhotoManager(this);
+        }
+    }
 }
@@ -0,0 +1,134 @@
+package com.janja.kit.photo;
+
+public class PhotoMetrics {
+
+    public interface Listener {
+        void onPhotoTimings(PhotoTimings timings);
+    }
+
+    private final long bitmapHitCount;
+    private final long memoryHitCount;
+    private final long diskHitCount;
+    private final long networkCount;
+    private final long revalidatedCount;
+    private final long failureCount;
+    private final long memoryBytes;
+    private final long diskBytes;
+    private final long networkBytes;
+    private final PhotoHistogram queueWait;
+    private final PhotoHistogram connect;
+    private final PhotoHistogram firstByte;
+    private final PhotoHistogram transfer;
+    private final PhotoHistogram decode;
+    private final PhotoHistogram delivery;
+    private final PhotoHistogram total;
+
+    PhotoMetrics(long bitmapHitCount, long memoryHitCount, long diskHitCount,
+            long networkCount, long revalidatedCount, long failureCount,
+            long memoryBytes, long diskBytes, long networkBytes,
+            PhotoHistogram queueWait, PhotoHistogram connect,
+            PhotoHistogram firstByte, PhotoHistogram transfer,
+            PhotoHistogram decode, PhotoHistogram delivery,
+            PhotoHistogram total) {
+        this.bitmapHitCount = bitmapHitCount;
+        this.memoryHitCount = memoryHitCount;
+        this.diskHitCount = diskHitCount;
+        this.networkCount = networkCount;
+        this.revalidatedCount = revalidatedCount;
+        this.failureCount = failureCount;
+        this.memoryBytes = memoryBytes;
+        this.diskBytes = diskBytes;
+        this.networkBytes = networkBytes;
+        this.queueWait = queueWait;
+        this.connect = connect;
+        this.firstByte = firstByte;
+        this.transfer = transfer;
+        this.decode = decode;
+        this.delivery = delivery;
+        this.total = total;
+    }
+
+    public long getBitmapHitCount() {
+        return bitmapHitCount;
+    }
+
+    public long getMemoryHitCount() {
+        return memoryHitCount;
+    }
+
+    public long getDiskHitCount() {
+        return diskHitCount;
+    }
+
+    public long getNetworkCount() {
+        return networkCount;
+    }
+
+    public long getRevalidatedCount() {
+        return revalidatedCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public long getNetworkBytes() {
+        return networkBytes;
+    }
+
+    public float getHitRatio() {
+        long hits = bitmapHitCount + memoryHitCount + diskHitCount
+                + revalidatedCount;
+        long requests = hits + networkCount;
+        return requests == 0 ? 0f : (float) hits / requests;
+    }
+
+    public PhotoHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public PhotoHistogram getConnect() {
+        return connect;
+    }
+
+    public PhotoHistogram getFirstByte() {
+        return firstByte;
+    }
+
+    public PhotoHistogram getTransfer() {
+        return transfer;
+    }
+
+    public PhotoHistogram getDecode() {
+        return decode;
+    }
+
+    public PhotoHistogram getDelivery() {
+        return delivery;
+    }
+
+    public PhotoHistogram getTotal() {
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "PhotoMetrics[hits: bitmap=" + bitmapHitCount + ", memory="
+                + memoryHitCount + ", disk=" + diskHitCount
+                + ", revalidated=" + revalidatedCount + ", network="
+                + networkCount + ", failed=" + failureCount + "; bytes: memory="
+                + memoryBytes + ", disk=" + diskBytes + ", network="
+                + networkBytes + "; queue{" + queueWait + "}, connect{"
+                + connect + "}, ttfb{" + firstByte + "}, transfer{" + transfer
+                + "}, decode{" + decode + "}, delivery{" + delivery
+                + "}, total{" + total + "}]";
+    }
+}
@@ -0,0 +1,86 @@
+package com.janja.kit.photo;
+
+class PhotoMetricsRecorder {
+
+    private long bitmapHitCount;
+    private long memoryHitCount;
+    private long diskHitCount;
+    private long networkCount;
+    private long revalidatedCount;
+    private long failureCount;
+    private long memoryBytes;
+    private long diskBytes;
+    private long networkBytes;
+    private PhotoHistogram queueWait = new PhotoHistogram();
+    private PhotoHistogram connect = new PhotoHistogram();
+    private PhotoHistogram firstByte = new PhotoHistogram();
+    private PhotoHistogram transfer = new PhotoHistogram();
+    private PhotoHistogram decode = new PhotoHistogram();
+    private PhotoHistogram delivery = new PhotoHistogram();
+    private PhotoHistogram total = new PhotoHistogram();
+
+    synchronized void recordBitmapHit() {
+        bitmapHitCount++;
+    }
+
+    synchronized void record(PhotoTimings timings) {
+        if (!timings.isSucceeded()) {
+            failureCount++;
+        } else {
+            switch (timings.getDataSource()) {
+                case PhotoManager.SOURCE_MEMORY:
+                    memoryHitCount++;
+                    memoryBytes += timings.getBytes();
+                    break;
+                case PhotoManager.SOURCE_DISK:
+                    diskHitCount++;
+                    diskBytes += timings.getBytes();
+                    break;
+                case PhotoManager.SOURCE_REVALIDATED:
+                    revalidatedCount++;
+                    diskBytes += timings.getBytes();
+                    break;
+                case PhotoManager.SOURCE_NETWORK:
+                    networkCount++;
+                    networkBytes += timings.getBytes();
+                    break;
+                default:
+                    break;
+            }
+        }
+        queueWait.record(timings.getQueueWaitMillis());
+        connect.record(timings.getConnectMillis());
+        firstByte.record(timings.getFirstByteMillis());
+        transfer.record(timings.getTransferMillis());
+        decode.record(timings.getDecodeMillis());
+        delivery.record(timings.getDeliveryMillis());
+        total.record(timings.getTotalMillis());
+    }
+
+    synchronized PhotoMetrics snapshot() {
+        return new PhotoMetrics(bitmapHitCount, memoryHitCount, diskHitCount,
+                networkCount, revalidatedCount, failureCount, memoryBytes,
+                diskBytes, networkBytes, queueWait.copy(), connect.copy(),
+                firstByte.copy(), transfer.copy(), decode.copy(),
+                delivery.copy(), total.copy());
+    }
+
+    synchronized void reset() {
+        bitmapHitCount = 0;
+        memoryHitCount = 0;
+        diskHitCount = 0;
+        networkCount = 0;
+        revalidatedCount = 0;
+        failureCount = 0;
+        memoryBytes = 0;
+        diskBytes = 0;
+        networkBytes = 0;
+        queueWait = new PhotoHistogram();
+        connect = new PhotoHistogram();
+        firstByte = new PhotoHistogram();
+        transfer = new PhotoHistogram();
+        decode = new PhotoHistogram();
+        delivery = new PhotoHistogram();
+        total = new PhotoHistogram();
+    }
+}
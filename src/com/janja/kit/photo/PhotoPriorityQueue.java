@@ -0,0 +1,344 @@
+package com.janja.kit.photo;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A heap ordered by priority and then by submission sequence. Priorities
+ * are read when a runnable is offered; a runnable whose priority changes
+ * while it waits has to be passed to {@link #reprioritize(Runnable)}.
+ */
+class PhotoPriorityQueue extends AbstractQueue<Runnable> implements
+        BlockingQueue<Runnable> {
+
+    interface Prioritized {
+        int getPriority();
+
+        long getSequence();
+    }
+
+    interface DropListener {
+        void onDropped(Runnable runnable);
+    }
+
+    private static final class Node {
+        final Runnable runnable;
+        final int priority;
+        final long sequence;
+
+        Node(Runnable runnable) {
+            this.runnable = runnable;
+            priority = getPriority(runnable);
+            sequence = getSequence(runnable);
+        }
+    }
+
+    private static final Comparator<Node> FIFO_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node left, Node right) {
+            if (left.priority != right.priority) {
+                return left.priority > right.priority ? -1 : 1;
+            }
+            return compareSequence(left.sequence, right.sequence);
+        }
+    };
+
+    private static final Comparator<Node> LIFO_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node left, Node right) {
+            if (left.priority != right.priority) {
+                return left.priority > right.priority ? -1 : 1;
+            }
+            return compareSequence(right.sequence, left.sequence);
+        }
+    };
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private PriorityQueue<Node> elements = new PriorityQueue<Node>(11,
+            FIFO_ORDER);
+    private final int protectedPriority;
+    private boolean lifo;
+    private volatile int maxSize = Integer.MAX_VALUE;
+    private volatile DropListener dropListener;
+
+    PhotoPriorityQueue(int protectedPriority) {
+        this.protectedPriority = protectedPriority;
+    }
+
+    void setLifo(boolean lifo) {
+        lock.lock();
+        try {
+            if (this.lifo == lifo) {
+                return;
+            }
+            this.lifo = lifo;
+            PriorityQueue<Node> reordered = new PriorityQueue<Node>(Math.max(
+                    1, elements.size()), lifo ? LIFO_ORDER : FIFO_ORDER);
+            reordered.addAll(elements);
+            elements = reordered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves runnable to the place its current priority calls for. Returns
+     * false if it is not queued.
+     */
+    boolean reprioritize(Runnable runnable) {
+        lock.lock();
+        try {
+            Node node = find(runnable);
+            if (node == null) {
+                return false;
+            }
+            if (node.priority != getPriority(runnable)) {
+                elements.remove(node);
+                elements.add(new Node(runnable));
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    void setDropListener(DropListener dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        Runnable dropped = null;
+        lock.lock();
+        try {
+            elements.add(new Node(runnable));
+            if (elements.size() > maxSize) {
+                Node stalest = findStalest();
+                if (stalest != null) {
+                    elements.remove(stalest);
+                    dropped = stalest.runnable;
+                }
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        DropListener listener = dropListener;
+        if (dropped != null && listener != null) {
+            listener.onDropped(dropped);
+        }
+        return true;
+    }
+
+    @Override
+    public void put(Runnable runnable) {
+        offer(runnable);
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (elements.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (elements.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            Node head = elements.peek();
+            return head == null ? null : head.runnable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return elements.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            Node node = find(o);
+            return node != null && elements.remove(node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        lock.lock();
+        try {
+            return find(o) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            elements.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && !elements.isEmpty()) {
+                c.add(dequeue());
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> runnables = new ArrayList<Runnable>(elements.size());
+            for (Node node : elements) {
+                runnables.add(node.runnable);
+            }
+            return runnables.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Runnable dequeue() {
+        Node head = elements.poll();
+        return head == null ? null : head.runnable;
+    }
+
+    private Node find(Object runnable) {
+        for (Node node : elements) {
+            if (node.runnable == runnable) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Only runs when the queue overflows, so a scan is cheaper than keeping
+     * a second heap in step.
+     */
+    private Node findStalest() {
+        Node worst = null;
+        for (Node node : elements) {
+            if (node.priority >= protectedPriority) {
+                continue;
+            }
+            if (worst == null || node.priority < worst.priority
+                    || (node.priority == worst.priority && node.sequence < worst.sequence)) {
+                worst = node;
+            }
+        }
+        return worst;
+    }
+
+    private static int compareSequence(long left, long right) {
+        return left < right ? -1 : (left == right ? 0 : 1);
+    }
+
+    private static int getPriority(Runnable runnable) {
+        if (runnable instanceof Prioritized) {
+            return ((Prioritized) runnable).getPriority();
+        }
+        return 0;
+    }
+
+    private static long getSequence(Runnable runnable) {
+        if (runnable instanceof Prioritized) {
+            return ((Prioritized) runnable).getSequence();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,300 @@
+package com.janja.kit.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class PhotoRequest {
+
+    private final Uri uri;
+    private final int width;
+    private final int height;
+    private final Bitmap.Config bitmapConfig;
+    private final boolean memoryCacheEnabled;
+    private final boolean diskCacheEnabled;
+    private final int priority;
+    private final Object tag;
+    private final Object group;
+    private final Drawable placeholder;
+    private final List<PhotoTransformation> transformations;
+    private final long maxPixels;
+    private final long maxBytes;
+    private final Uri fallbackUri;
+    private final PhotoRequestKey key;
+
+    private PhotoRequest(Builder builder) {
+        uri = builder.uri;
+        width = builder.width;
+        height = builder.height;
+        bitmapConfig = builder.bitmapConfig;
+        memoryCacheEnabled = builder.memoryCacheEnabled;
+        diskCacheEnabled = builder.diskCacheEnabled;
+        priority = builder.priority;
+        tag = builder.tag;
+        group = builder.group;
+        placeholder = builder.placeholder;
+        transformations = Collections
+                .unmodifiableList(new ArrayList<PhotoTransformation>(
+                        builder.transformations));
+        maxPixels = builder.maxPixels;
+        maxBytes = builder.maxBytes;
+        fallbackUri = builder.fallbackUri;
+        key = PhotoManager.getRequestKey(uri.toString(), width, height,
+                bitmapConfig, transformations, maxPixels, maxBytes,
+                fallbackUri);
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public URL getURL() {
+        try {
+            return new URL(uri.toString());
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+
+    public Bitmap.Config getBitmapConfig() {
+        return bitmapConfig;
+    }
+
+    public boolean isMemoryCacheEnabled() {
+        return memoryCacheEnabled;
+    }
+
+    public boolean isDiskCacheEnabled() {
+        return diskCacheEnabled;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    public Object getGroup() {
+        return group;
+    }
+
+    public Drawable getPlaceholder() {
+        return placeholder;
+    }
+
+    public List<PhotoTransformation> getTransformations() {
+        return transformations;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Uri getFallbackUri() {
+        return fallbackUri;
+    }
+
+    PhotoRequestKey getKey() {
+        return key;
+    }
+
+    PhotoRequest resolveSize(PhotoTarget target) {
+        if (hasSize()) {
+            return this;
+        }
+        return buildUpon().setSize(Math.max(0, target.getWidth()),
+                Math.max(0, target.getHeight())).build();
+    }
+
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    @Override
+    public String toString() {
+        return "PhotoRequest[" + key + ", priority=" + priority + "]";
+    }
+
+    public static class Builder {
+
+        private Uri uri;
+        private int width;
+        private int height;
+        private Bitmap.Config bitmapConfig = PhotoManager.DEFAULT_BITMAP_CONFIG;
+        private boolean memoryCacheEnabled = true;
+        private boolean diskCacheEnabled = true;
+        private int priority = PhotoManager.PRIORITY_NORMAL;
+        private Object tag;
+        private Object group;
+        private Drawable placeholder;
+        private final List<PhotoTransformation> transformations = new ArrayList<PhotoTransformation>();
+        private long maxPixels;
+        private long maxBytes;
+        private Uri fallbackUri;
+
+        public Builder(Uri uri) {
+            this.uri = uri;
+        }
+
+        public Builder(URL url) {
+            this.uri = url == null ? null : Uri.parse(url.toExternalForm());
+        }
+
+        public Builder(String uri) {
+            this(uri == null ? null : Uri.parse(uri));
+            if (uri != null && this.uri.getScheme() == null) {
+                throw new IllegalArgumentException("Photo URI has no scheme: "
+                        + uri);
+            }
+        }
+
+        private Builder(PhotoRequest request) {
+            uri = request.uri;
+            width = request.width;
+            height = request.height;
+            bitmapConfig = request.bitmapConfig;
+            memoryCacheEnabled = request.memoryCacheEnabled;
+            diskCacheEnabled = request.diskCacheEnabled;
+            priority = request.priority;
+            tag = request.tag;
+            group = request.group;
+            placeholder = request.placeholder;
+            transformations.addAll(request.transformations);
+            maxPixels = request.maxPixels;
+            maxBytes = request.maxBytes;
+            fallbackUri = request.fallbackUri;
+        }
+
+        public Builder setSize(int width, int height) {
+            if (width < 0 || height < 0) {
+                throw new IllegalArgumentException("Size must be >= 0: "
+                        + width + "x" + height);
+            }
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        public Builder setTargetSize() {
+            return setSize(0, 0);
+        }
+
+        public Builder setBitmapConfig(Bitmap.Config bitmapConfig) {
+            this.bitmapConfig = bitmapConfig;
+            return this;
+        }
+
+        public Builder setMemoryCacheEnabled(boolean enabled) {
+            memoryCacheEnabled = enabled;
+            return this;
+        }
+
+        public Builder setDiskCacheEnabled(boolean enabled) {
+            diskCacheEnabled = enabled;
+            return this;
+        }
+
+        public Builder setPriority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        public Builder setTag(Object tag) {
+            this.tag = tag;
+            return this;
+        }
+
+        public Builder setGroup(Object group) {
+            this.group = group;
+            return this;
+        }
+
+        public Builder setPlaceholder(Drawable placeholder) {
+            this.placeholder = placeholder;
+            return this;
+        }
+
+        public Builder addTransformation(PhotoTransformation transformation) {
+            if (transformation == null) {
+                throw new IllegalArgumentException(
+                        "Transformation must not be null");
+            }
+            transformations.add(transformation);
+            return this;
+        }
+
+        public Builder clearTransformations() {
+            transformations.clear();
+            return this;
+        }
+
+        /**
+         * Abandons the photo once its header shows more pixels than this,
+         * before the rest of the body is downloaded. 0 means no limit.
+         */
+        public Builder setMaxPixels(long maxPixels) {
+            if (maxPixels < 0) {
+                throw new IllegalArgumentException("Max pixels must be >= 0: "
+                        + maxPixels);
+            }
+            this.maxPixels = maxPixels;
+            return this;
+        }
+
+        /**
+         * Abandons the download once the body is known to be larger than
+         * this. 0 means no limit.
+         */
+        public Builder setMaxBytes(long maxBytes) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("Max bytes must be >= 0: "
+                        + maxBytes);
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * A smaller variant to download instead when the photo goes over
+         * one of the limits.
+         */
+        public Builder setFallbackUri(Uri fallbackUri) {
+            this.fallbackUri = fallbackUri;
+            return this;
+        }
+
+        public PhotoRequest build() {
+            if (uri == null) {
+                throw new IllegalArgumentException("Photo URI must not be null");
+            }
+            if (bitmapConfig == null) {
+                bitmapConfig = PhotoManager.DEFAULT_BITMAP_CONFIG;
+            }
+            return new PhotoRequest(this);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.janja.kit.photo;
+
+public final class PhotoRequestKey {
+
+    private final String url;
+    private final int width;
+    private final int height;
+    private final String variant;
+    private final int hashCode;
+    private PhotoRequestKey sourceKey;
+
+    public PhotoRequestKey(String url, int width, int height, String variant) {
+        this.url = normalize(url);
+        this.width = width;
+        this.height = height;
+        this.variant = variant == null ? "" : variant;
+        int result = this.url.hashCode();
+        result = 31 * result + width;
+        result = 31 * result + height;
+        result = 31 * result + this.variant.hashCode();
+        hashCode = result;
+    }
+
+    private PhotoRequestKey(String normalizedUrl) {
+        url = normalizedUrl;
+        width = 0;
+        height = 0;
+        variant = "";
+        hashCode = 31 * 31 * 31 * normalizedUrl.hashCode();
+        sourceKey = this;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    public PhotoRequestKey getSourceKey() {
+        if (sourceKey == null) {
+            sourceKey = new PhotoRequestKey(url);
+        }
+        return sourceKey;
+    }
+
+    public String getHost() {
+        int start = url.indexOf("://");
+        if (start < 0) {
+            return "";
+        }
+        start += 3;
+        int end = start;
+        while (end < url.length() && url.charAt(end) != '/'
+                && url.charAt(end) != '?') {
+            end++;
+        }
+        String authority = url.substring(start, end);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            authority = authority.substring(at + 1);
+        }
+        return authority;
+    }
+
+    public boolean isSameSource(PhotoRequestKey other) {
+        return other != null
+                && (other == this || (url.hashCode() == other.url.hashCode() && url
+                        .equals(other.url)));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PhotoRequestKey)) {
+            return false;
+        }
+        PhotoRequestKey other = (PhotoRequestKey) o;
+        return hashCode == other.hashCode && width == other.width
+                && height == other.height && url.equals(other.url)
+                && variant.equals(other.variant);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        if (this == sourceKey) {
+            return url;
+        }
+        return url + '#' + width + 'x' + height + ':' + variant;
+    }
+
+    static String normalize(String url) {
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0) {
+            return stripFragment(url);
+        }
+        String scheme = url.substring(0, schemeEnd).toLowerCase();
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < url.length()) {
+            char c = url.charAt(authorityEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            authorityEnd++;
+        }
+        String authority = url.substring(authorityStart, authorityEnd);
+        int at = authority.lastIndexOf('@');
+        String userInfo = at >= 0 ? authority.substring(0, at + 1) : "";
+        String hostPort = authority.substring(at + 1).toLowerCase();
+        if (("http".equals(scheme) && hostPort.endsWith(":80"))
+                || ("https".equals(scheme) && hostPort.endsWith(":443"))) {
+            hostPort = hostPort.substring(0, hostPort.lastIndexOf(':'));
+        }
+
+        String rest = stripFragment(url.substring(authorityEnd));
+        if (rest.length() == 0 || rest.charAt(0) == '?') {
+            rest = "/" + rest;
+        }
+        return scheme + "://" + userInfo + hostPort + rest;
+    }
+
+    private static String stripFragment(String url) {
+        int fragment = url.indexOf('#');
+        return fragment < 0 ? url : url.substring(0, fragment);
+    }
+}
@@ -0,0 +1,96 @@
+package com.janja.kit.photo;
+
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+import com.janja.kit.view.SwipeRefreshListView.OnSwipeRefreshScrollListener;
+
+public class PhotoScrollListener implements OnSwipeRefreshScrollListener {
+
+    private final Object tag;
+    private final boolean pauseOnScroll;
+    private final boolean pauseOnFling;
+    private final boolean pauseDownloads;
+    private final OnScrollListener delegate;
+    private PhotoManager photoManager;
+
+    public PhotoScrollListener(Object tag) {
+        this(tag, false, true, false, null);
+    }
+
+    public PhotoScrollListener(Object tag, OnScrollListener delegate) {
+        this(tag, false, true, false, delegate);
+    }
+
+    public PhotoScrollListener(Object tag, boolean pauseOnScroll,
+            boolean pauseOnFling, boolean pauseDownloads,
+            OnScrollListener delegate) {
+        this.tag = tag;
+        this.pauseOnScroll = pauseOnScroll;
+        this.pauseOnFling = pauseOnFling;
+        this.pauseDownloads = pauseDownloads;
+        this.delegate = delegate;
+    }
+
+    public PhotoManager getPhotoManager() {
+        return photoManager != null ? photoManager : PhotoManager
+                .getInstance();
+    }
+
+    /**
+     * Pauses and resumes requests on the given manager instead of the
+     * default one; the tag is resumed on the manager it leaves.
+     */
+    public void setPhotoManager(PhotoManager manager) {
+        if (manager == photoManager) {
+            return;
+        }
+        getPhotoManager().resumeByTag(tag);
+        photoManager = manager;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        switch (scrollState) {
+            case OnScrollListener.SCROLL_STATE_TOUCH_SCROLL:
+                if (pauseOnScroll) {
+                    getPhotoManager().pauseByTag(tag, pauseDownloads);
+                } else {
+                    getPhotoManager().resumeByTag(tag);
+                }
+                break;
+            case OnScrollListener.SCROLL_STATE_FLING:
+                if (pauseOnFling) {
+                    getPhotoManager().pauseByTag(tag, pauseDownloads);
+                } else {
+                    getPhotoManager().resumeByTag(tag);
+                }
+                break;
+            default:
+                getPhotoManager().resumeByTag(tag);
+                break;
+        }
+
+        if (delegate != null) {
+            delegate.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem,
+            int visibleItemCount, int totalItemCount) {
+        if (delegate != null) {
+            delegate.onScroll(view, firstVisibleItem, visibleItemCount,
+                    totalItemCount);
+        }
+    }
+
+    @Override
+    public void onSwipeRefreshScrolling(View view) {
+        if (delegate instanceof OnSwipeRefreshScrollListener) {
+            ((OnSwipeRefreshScrollListener) delegate)
+                    .onSwipeRefreshScrolling(view);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.janja.kit.photo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+class PhotoSegmentedBuffer {
+
+    private final PhotoByteArrayPool pool;
+    private final List<byte[]> segments = new ArrayList<byte[]>();
+    private int size;
+
+    PhotoSegmentedBuffer(PhotoByteArrayPool pool) {
+        this.pool = pool;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int readFrom(InputStream input) throws IOException, InterruptedException {
+        int segmentSize = pool.getSegmentSize();
+        int total = 0;
+        while (true) {
+            int offset = size % segmentSize;
+            if (offset == 0 && size / segmentSize == segments.size()) {
+                segments.add(pool.get());
+            }
+            byte[] segment = segments.get(segments.size() - 1);
+            int readResult = input.read(segment, offset, segmentSize - offset);
+            if (readResult < 0) {
+                return total;
+            }
+            size += readResult;
+            total += readResult;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    void write(byte[] data, int offset, int length) {
+        int segmentSize = pool.getSegmentSize();
+        while (length > 0) {
+            int segmentOffset = size % segmentSize;
+            if (segmentOffset == 0 && size / segmentSize == segments.size()) {
+                segments.add(pool.get());
+            }
+            int count = Math.min(length, segmentSize - segmentOffset);
+            System.arraycopy(data, offset, segments.get(segments.size() - 1),
+                    segmentOffset, count);
+            size += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    byte[] toByteArray() {
+        byte[] result = new byte[size];
+        int segmentSize = pool.getSegmentSize();
+        int offset = 0;
+        for (byte[] segment : segments) {
+            int count = Math.min(segmentSize, size - offset);
+            if (count <= 0) {
+                break;
+            }
+            System.arraycopy(segment, 0, result, offset, count);
+            offset += count;
+        }
+        return result;
+    }
+
+    void writeTo(OutputStream output) throws IOException {
+        int segmentSize = pool.getSegmentSize();
+        int offset = 0;
+        for (byte[] segment : segments) {
+            int count = Math.min(segmentSize, size - offset);
+            if (count <= 0) {
+                break;
+            }
+            output.write(segment, 0, count);
+            offset += count;
+        }
+    }
+
+    void release() {
+        for (byte[] segment : segments) {
+            pool.put(segment);
+        }
+        segments.clear();
+        size = 0;
+    }
+
+    static byte[] readFully(InputStream byteStream, int contentSize,
+            PhotoByteArrayPool pool) throws IOException, InterruptedException {
+        if (-1 == contentSize) {
+            PhotoSegmentedBuffer segmentedBuffer = new PhotoSegmentedBuffer(pool);
+            try {
+                segmentedBuffer.readFrom(byteStream);
+                return segmentedBuffer.toByteArray();
+            } finally {
+                segmentedBuffer.release();
+            }
+        }
+
+        byte[] byteBuffer = new byte[contentSize];
+        int remainingLength = contentSize;
+        int bufferOffset = 0;
+
+        while (remainingLength > 0) {
+            int readResult = byteStream.read(byteBuffer, bufferOffset,
+                    remainingLength);
+            if (readResult < 0) {
+                throw new EOFException();
+            }
+            bufferOffset += readResult;
+            remainingLength -= readResult;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return byteBuffer;
+    }
+}
@@ -0,0 +1,24 @@
+package com.janja.kit.photo;
+
+import android.graphics.Bitmap;
+
+public interface PhotoTarget {
+
+    int getWidth();
+
+    int getHeight();
+
+    boolean isShown();
+
+    void onPhotoStatus(int state);
+
+    /**
+     * The bitmap belongs to the pool of the manager that delivered it. To
+     * keep it past this call, acquire it from that manager's
+     * {@link PhotoManager#getPool()}, and release it there once it is no
+     * longer drawn.
+     */
+    void onPhotoLoaded(Bitmap bitmap);
+
+    void onPhotoDropped();
+}
@@ -1,44 +1,267 @@
 package com.janja.kit.photo;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.SystemClock;
 
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 import com.janja.kit.photo.PhotoDecodeRunnable.TaskRunnableDecodeMethods;
+import com.janja.kit.photo.PhotoDiskRunnable.TaskRunnableDiskMethods;
 import com.janja.kit.photo.PhotoDownloadRunnable.TaskRunnableDownloadMethods;
 
 public class PhotoTask implements TaskRunnableDownloadMethods,
-        TaskRunnableDecodeMethods {
+        TaskRunnableDecodeMethods, TaskRunnableDiskMethods {
 
-    private WeakReference<PhotoView> mImageWeakRef;
-    private URL imageURL;
+    private final List<WeakReference<PhotoTarget>> mImageWeakRefs = new ArrayList<WeakReference<PhotoTarget>>();
+    private Uri imageUri;
+    private PhotoFetcher fetcher;
+    private PhotoRequestKey requestKey;
+    private PhotoRequestKey sourceKey;
     private int targetHeight;
     private int targetWidth;
-    private boolean cacheEnabled;
+    private long maxPixels;
+    private long maxBytes;
+    private Uri fallbackUri;
+    private int limitExceeded;
+    private boolean fallbackUsed;
+    private Bitmap.Config bitmapConfig = PhotoManager.DEFAULT_BITMAP_CONFIG;
+    private List<PhotoTransformation> transformations = Collections
+            .emptyList();
+    private boolean memoryCacheEnabled;
+    private boolean diskCacheEnabled;
+    private int dataSource;
+    private int basePriority;
+    private Object baseTag;
+    private long requestTime;
+    private long queuedTime;
+    private long queueWaitTime;
+    private long downloadStartTime;
+    private long connectTime;
+    private long responseTime;
+    private long downloadEndTime;
+    private long decodeStartTime;
+    private long decodeEndTime;
+    private long finishTime;
+    private byte[] revalidationBuffer;
+    private byte[] partialBody;
+    private PhotoCacheHeaders partialValidators;
+    private PhotoCacheHeaders cacheHeaders;
+    private volatile int priority;
+    private volatile long sequence;
+    private final PhotoTaskState taskState = new PhotoTaskState();
+    private Closeable cancelHandle;
+    private FileDescriptor sourceDescriptor;
+    private Closeable sourceOwner;
+    private BitmapFactory.Options decodeOptions;
+    private Runnable diskRunnable;
     private Runnable downloadRunnable;
     private Runnable decodeRunnable;
     private Bitmap decodedImage;
-    private Thread currentThread;
-    private static PhotoManager sPhotoManager;
+    private volatile Thread currentThread;
+    private PhotoManager photoManager;
 
     protected Thread threadThis;
     protected byte[] imageBuffer;
 
     PhotoTask() {
+        diskRunnable = new PhotoDiskRunnable(this);
         downloadRunnable = new PhotoDownloadRunnable(this);
         decodeRunnable = new PhotoDecodeRunnable(this);
-        sPhotoManager = PhotoManager.getInstance();
     }
 
     void initializeDownloaderTask(PhotoManager photoManager,
-            PhotoView photoView, boolean cacheFlag) {
-        sPhotoManager = photoManager;
-        imageURL = photoView.getLocation();
-        mImageWeakRef = new WeakReference<PhotoView>(photoView);
-        cacheEnabled = cacheFlag;
-        targetWidth = photoView.getWidth();
-        targetHeight = photoView.getHeight();
+            PhotoTarget photoTarget, PhotoRequest request, long sequence) {
+        this.photoManager = photoManager;
+        this.sequence = sequence;
+        taskState.setState(PhotoTaskState.STATE_QUEUED);
+        resetTimings();
+        basePriority = PhotoManager.PRIORITY_LOW;
+        baseTag = null;
+        priority = request.getPriority();
+        imageUri = request.getUri();
+        fetcher = photoManager.getFetcher(imageUri);
+        requestKey = request.getKey();
+        sourceKey = requestKey.getSourceKey();
+        synchronized (mImageWeakRefs) {
+            mImageWeakRefs.clear();
+            mImageWeakRefs.add(new WeakReference<PhotoTarget>(photoTarget));
+        }
+        memoryCacheEnabled = request.isMemoryCacheEnabled();
+        diskCacheEnabled = request.isDiskCacheEnabled();
+        bitmapConfig = request.getBitmapConfig();
+        transformations = request.getTransformations();
+        targetWidth = request.getWidth();
+        targetHeight = request.getHeight();
+        maxPixels = request.getMaxPixels();
+        maxBytes = request.getMaxBytes();
+        fallbackUri = request.getFallbackUri();
+    }
+
+    void initializePrefetchTask(PhotoManager photoManager, Uri uri,
+            PhotoFetcher fetcher, PhotoRequestKey requestKey, long sequence) {
+        this.photoManager = photoManager;
+        this.sequence = sequence;
+        taskState.setState(PhotoTaskState.STATE_QUEUED);
+        resetTimings();
+        basePriority = PhotoManager.PRIORITY_LOW;
+        priority = PhotoManager.PRIORITY_LOW;
+        baseTag = PhotoManager.PREFETCH_TAG;
+        imageUri = uri;
+        this.fetcher = fetcher;
+        this.requestKey = requestKey;
+        sourceKey = requestKey.getSourceKey();
+        synchronized (mImageWeakRefs) {
+            mImageWeakRefs.clear();
+        }
+        memoryCacheEnabled = true;
+        diskCacheEnabled = true;
+        bitmapConfig = PhotoManager.DEFAULT_BITMAP_CONFIG;
+        transformations = Collections.emptyList();
+        targetWidth = requestKey.getWidth();
+        targetHeight = requestKey.getHeight();
+        maxPixels = 0;
+        maxBytes = 0;
+        fallbackUri = null;
+    }
+
+    private void resetTimings() {
+        requestTime = SystemClock.uptimeMillis();
+        queuedTime = 0;
+        queueWaitTime = 0;
+        downloadStartTime = 0;
+        connectTime = 0;
+        responseTime = 0;
+        downloadEndTime = 0;
+        decodeStartTime = 0;
+        decodeEndTime = 0;
+        finishTime = 0;
+        limitExceeded = PhotoManager.LIMIT_NONE;
+        fallbackUsed = false;
+    }
+
+    void markQueued() {
+        if (queuedTime == 0) {
+            queuedTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    private void markDequeued() {
+        if (queuedTime != 0) {
+            queueWaitTime += SystemClock.uptimeMillis() - queuedTime;
+            queuedTime = 0;
+        }
+    }
+
+    void markFinished() {
+        finishTime = SystemClock.uptimeMillis();
+        taskState.advance(PhotoTaskState.STATE_DELIVERING);
+    }
+
+    int getGeneration() {
+        return taskState.getGeneration();
+    }
+
+    int getState() {
+        return taskState.getState();
+    }
+
+    @Override
+    public void markConnected() {
+        connectTime = SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void markResponseStarted() {
+        responseTime = SystemClock.uptimeMillis();
+    }
+
+    PhotoTimings getTimings(boolean succeeded) {
+        long now = SystemClock.uptimeMillis();
+        return new PhotoTimings(requestKey.getUrl(), dataSource, succeeded,
+                imageBuffer == null ? 0 : imageBuffer.length, queueWaitTime,
+                connectTime == 0 ? -1 : connectTime - downloadStartTime,
+                responseTime == 0 ? -1 : responseTime - downloadStartTime,
+                responseTime == 0 || downloadEndTime == 0 ? -1
+                        : downloadEndTime - responseTime,
+                decodeEndTime == 0 ? -1 : decodeEndTime - decodeStartTime,
+                finishTime == 0 ? -1 : now - finishTime, now - requestTime,
+                limitExceeded, fallbackUsed);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return getState() == PhotoTaskState.STATE_CANCELLED;
+    }
+
+    /**
+     * Returns false when the task has already been cancelled or has moved
+     * on past the given generation.
+     */
+    boolean cancel(int generation, Executor disconnectExecutor) {
+        if (!taskState.cancel(generation)) {
+            return false;
+        }
+        final Closeable handle;
+        BitmapFactory.Options options;
+        synchronized (this) {
+            handle = cancelHandle;
+            options = decodeOptions;
+        }
+        if (null != handle) {
+            disconnectExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeQuietly(handle);
+                }
+            });
+        }
+        if (null != options) {
+            options.requestCancelDecode();
+        }
+        Thread thread = currentThread;
+        if (null != thread) {
+            thread.interrupt();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void setCancelHandle(Closeable handle) {
+        cancelHandle = handle;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void setDecodeOptions(BitmapFactory.Options options) {
+        decodeOptions = options;
+    }
+
+    boolean isCancelledBy(Object tag) {
+        return baseTag != null && baseTag.equals(tag)
+                && getWaitingRequests().isEmpty();
+    }
+
+    boolean isPrefetch() {
+        return baseTag == PhotoManager.PREFETCH_TAG;
     }
 
     @Override
@@ -47,12 +270,25 @@ public class PhotoTask implements TaskRunnableDownloadMethods,
     }
 
     void recycle() {
-        if (null != mImageWeakRef) {
-            mImageWeakRef.clear();
-            mImageWeakRef = null;
+        taskState.recycle();
+        synchronized (mImageWeakRefs) {
+            mImageWeakRefs.clear();
         }
         imageBuffer = null;
-        decodedImage = null;
+        sourceDescriptor = null;
+        if (null != sourceOwner) {
+            closeQuietly(sourceOwner);
+            sourceOwner = null;
+        }
+        revalidationBuffer = null;
+        partialBody = null;
+        partialValidators = null;
+        cacheHeaders = null;
+        if (null != decodedImage) {
+            photoManager.getPool().release(decodedImage);
+            decodedImage = null;
+        }
+        dataSource = 0;
     }
 
     @Override
@@ -65,13 +301,89 @@ public class PhotoTask implements TaskRunnableDownloadMethods,
         return targetHeight;
     }
 
-    boolean isCacheEnabled() {
-        return cacheEnabled;
+    @Override
+    public Bitmap.Config getBitmapConfig() {
+        return bitmapConfig;
+    }
+
+    @Override
+    public List<PhotoTransformation> getTransformations() {
+        return transformations;
+    }
+
+    @Override
+    public PhotoBitmapPool getBitmapPool() {
+        return photoManager.getPool();
+    }
+
+    PhotoRequestKey getRequestKey() {
+        return requestKey;
+    }
+
+    /**
+     * The key of the body actually fetched, which is the fallback's once
+     * the task has switched to it.
+     */
+    PhotoRequestKey getSourceKey() {
+        return sourceKey;
+    }
+
+    boolean isMemoryCacheEnabled() {
+        return memoryCacheEnabled;
+    }
+
+    boolean isDiskCacheEnabled() {
+        return diskCacheEnabled;
     }
 
     @Override
-    public URL getImageURL() {
-        return imageURL;
+    public Uri getUri() {
+        return imageUri;
+    }
+
+    @Override
+    public PhotoFetcher getFetcher() {
+        return fetcher;
+    }
+
+    @Override
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public void setLimitExceeded(int limit) {
+        limitExceeded = limit;
+    }
+
+    @Override
+    public boolean switchToFallback() {
+        if (fallbackUsed || null == fallbackUri) {
+            return false;
+        }
+        PhotoFetcher fallbackFetcher = photoManager.getFetcher(fallbackUri);
+        if (null == fallbackFetcher) {
+            return false;
+        }
+        fallbackUsed = true;
+        imageUri = fallbackUri;
+        sourceKey = new PhotoRequestKey(fallbackUri.toString(), 0, 0, null)
+                .getSourceKey();
+        fetcher = fallbackFetcher;
+        revalidationBuffer = null;
+        cacheHeaders = null;
+        partialBody = null;
+        partialValidators = null;
+        return true;
+    }
+
+    boolean isLocal() {
+        return fetcher.isLocal();
     }
 
     @Override
@@ -79,14 +391,44 @@ public class PhotoTask implements TaskRunnableDownloadMethods,
         this.imageBuffer = imageBuffer;
     }
 
+    @Override
+    public void setSource(FileDescriptor descriptor, Closeable owner) {
+        sourceDescriptor = descriptor;
+        sourceOwner = owner;
+    }
+
+    @Override
+    public FileDescriptor getFileDescriptor() {
+        return sourceDescriptor;
+    }
+
+    @Override
+    public byte[] readFully(InputStream input, int length)
+            throws IOException, InterruptedException {
+        return PhotoSegmentedBuffer.readFully(input, length,
+                photoManager.getByteArrayPool());
+    }
+
+    int getDataSource() {
+        return dataSource;
+    }
+
+    void setDataSource(int dataSource) {
+        this.dataSource = dataSource;
+    }
+
     void handleState(int state) {
-        sPhotoManager.handleState(this, state);
+        photoManager.handleState(this, state);
     }
 
     Bitmap getImage() {
         return decodedImage;
     }
 
+    Runnable getDiskRunnable() {
+        return diskRunnable;
+    }
+
     Runnable getHTTPDownloadRunnable() {
         return downloadRunnable;
     }
@@ -96,21 +438,161 @@ public class PhotoTask implements TaskRunnableDownloadMethods,
     }
 
     public PhotoView getPhotoView() {
-        if (null != mImageWeakRef) {
-            return mImageWeakRef.get();
+        for (PhotoTarget photoTarget : getPhotoTargets()) {
+            if (photoTarget instanceof PhotoView) {
+                return (PhotoView) photoTarget;
+            }
         }
         return null;
     }
 
-    public Thread getCurrentThread() {
-        synchronized (sPhotoManager) {
-            return currentThread;
+    List<PhotoTarget> getPhotoTargets() {
+        List<PhotoTarget> photoTargets = new ArrayList<PhotoTarget>();
+        synchronized (mImageWeakRefs) {
+            Iterator<WeakReference<PhotoTarget>> i = mImageWeakRefs.iterator();
+            while (i.hasNext()) {
+                PhotoTarget photoTarget = i.next().get();
+                if (photoTarget == null) {
+                    i.remove();
+                } else {
+                    photoTargets.add(photoTarget);
+                }
+            }
         }
+        return photoTargets;
+    }
+
+    void addPhotoTarget(PhotoTarget photoTarget, PhotoRequest request) {
+        synchronized (mImageWeakRefs) {
+            for (WeakReference<PhotoTarget> ref : mImageWeakRefs) {
+                if (ref.get() == photoTarget) {
+                    return;
+                }
+            }
+            mImageWeakRefs.add(new WeakReference<PhotoTarget>(photoTarget));
+            memoryCacheEnabled |= request.isMemoryCacheEnabled();
+            diskCacheEnabled |= request.isDiskCacheEnabled();
+        }
+        refreshPriority();
+    }
+
+    @Override
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public long getSequence() {
+        return sequence;
+    }
+
+    boolean isPausedBy(Map<Object, Boolean> pausedTags, boolean download) {
+        if (pausedTags.isEmpty()) {
+            return false;
+        }
+        List<Object> tags = new ArrayList<Object>();
+        for (PhotoRequest request : getWaitingRequests()) {
+            if (request.getTag() == null) {
+                return false;
+            }
+            tags.add(request.getTag());
+        }
+        if (tags.isEmpty() && baseTag != null) {
+            tags.add(baseTag);
+        }
+        if (tags.isEmpty()) {
+            return false;
+        }
+        for (Object tag : tags) {
+            Boolean includeDownloads = pausedTags.get(tag);
+            if (includeDownloads == null || (download && !includeDownloads)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isWanted() {
+        if (isCancelled()) {
+            return false;
+        }
+        return baseTag != null || !getWaitingRequests().isEmpty();
+    }
+
+    boolean isWantedOnScreen() {
+        List<PhotoTarget> photoTargets = getPhotoTargets();
+        if (photoTargets.isEmpty()) {
+            return baseTag != null;
+        }
+        for (PhotoTarget photoTarget : photoTargets) {
+            if (isRequestedBy(photoTarget) && photoTarget.isShown()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void refreshPriority() {
+        int newPriority = basePriority;
+        for (PhotoRequest request : getWaitingRequests()) {
+            newPriority = Math.max(newPriority, request.getPriority());
+        }
+        if (priority != newPriority) {
+            priority = newPriority;
+            photoManager.reprioritize(this);
+        }
+    }
+
+    private List<PhotoRequest> getWaitingRequests() {
+        List<PhotoRequest> requests = new ArrayList<PhotoRequest>();
+        for (PhotoTarget photoTarget : getPhotoTargets()) {
+            PhotoRequest request = photoManager.getTargetRequest(photoTarget);
+            if (request != null && request.getKey().equals(requestKey)) {
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    int removePhotoTarget(PhotoTarget photoTarget) {
+        synchronized (mImageWeakRefs) {
+            Iterator<WeakReference<PhotoTarget>> i = mImageWeakRefs.iterator();
+            while (i.hasNext()) {
+                PhotoTarget waiter = i.next().get();
+                if (waiter == null || waiter == photoTarget) {
+                    i.remove();
+                }
+            }
+            if (mImageWeakRefs.isEmpty()) {
+                return 0;
+            }
+        }
+        refreshPriority();
+        return mImageWeakRefs.size();
+    }
+
+    boolean isRequestedBy(PhotoTarget photoTarget) {
+        PhotoRequest request = photoManager.getTargetRequest(photoTarget);
+        return request != null && request.getKey().equals(requestKey);
+    }
+
+    public Thread getCurrentThread() {
+        return currentThread;
     }
 
     public void setCurrentThread(Thread thread) {
-        synchronized (sPhotoManager) {
-            currentThread = thread;
+        currentThread = thread;
+    }
+
+    /**
+     * The thread is published before the state moves, and cancel() moves the
+     * state before reading the thread, so one of the two always sees the
+     * other.
+     */
+    private void enterStage(Thread thread, int state) {
+        currentThread = thread;
+        if (!taskState.advance(state)) {
+            thread.interrupt();
         }
     }
 
@@ -119,9 +601,128 @@ public class PhotoTask implements TaskRunnableDownloadMethods,
         this.decodedImage = decodedImage;
     }
 
+    @Override
+    public PhotoDiskCache getDiskCache() {
+        return photoManager.getDiskCache();
+    }
+
+    /**
+     * HTTP responses always leave cache headers behind, so an HTTP entry
+     * without them can no longer be judged fresh.
+     */
+    @Override
+    public boolean isHttp() {
+        String scheme = imageUri.getScheme();
+        return PhotoFetchers.SCHEME_HTTP.equalsIgnoreCase(scheme)
+                || PhotoFetchers.SCHEME_HTTPS.equalsIgnoreCase(scheme);
+    }
+
+    @Override
+    public String getDiskCacheKey() {
+        return PhotoDiskCache.hashKey(sourceKey.getUrl());
+    }
+
+    @Override
+    public void setRevalidation(byte[] staleBuffer, PhotoCacheHeaders headers) {
+        revalidationBuffer = staleBuffer;
+        cacheHeaders = headers;
+    }
+
+    @Override
+    public void setPartialBody(byte[] partialBody,
+            PhotoCacheHeaders validators) {
+        this.partialBody = partialBody;
+        partialValidators = validators;
+    }
+
+    @Override
+    public byte[] getPartialBody() {
+        return partialBody;
+    }
+
+    @Override
+    public PhotoCacheHeaders getPartialValidators() {
+        return partialValidators;
+    }
+
+    @Override
+    public void savePartialBody(byte[] partialBody,
+            PhotoCacheHeaders validators) {
+        PhotoDiskCache cache = diskCacheEnabled ? getDiskCache() : null;
+        if (null != cache && !validators.isNoStore()) {
+            cache.putPartial(getDiskCacheKey(), partialBody,
+                    validators.encode());
+        }
+    }
+
+    @Override
+    public void discardPartialBody() {
+        partialBody = null;
+        partialValidators = null;
+        PhotoDiskCache cache = diskCacheEnabled ? getDiskCache() : null;
+        if (null != cache) {
+            cache.removePartial(getDiskCacheKey());
+        }
+    }
+
+    @Override
+    public PhotoByteArrayPool getByteArrayPool() {
+        return photoManager.getByteArrayPool();
+    }
+
+    @Override
+    public byte[] getRevalidationBuffer() {
+        return revalidationBuffer;
+    }
+
+    @Override
+    public PhotoCacheHeaders getCacheHeaders() {
+        return cacheHeaders;
+    }
+
+    @Override
+    public void setCacheHeaders(PhotoCacheHeaders headers) {
+        cacheHeaders = headers;
+    }
+
+    @Override
+    public void setDiskThread(Thread currentThread) {
+        if (currentThread != null) {
+            markDequeued();
+            enterStage(currentThread, PhotoTaskState.STATE_DOWNLOADING);
+        } else {
+            setCurrentThread(null);
+        }
+    }
+
+    @Override
+    public void handleDiskState(int state) {
+        int outState;
+        switch (state) {
+            case PhotoDiskRunnable.DISK_STATE_HIT:
+                dataSource = PhotoManager.SOURCE_DISK;
+                outState = PhotoManager.DOWNLOAD_COMPLETE;
+                break;
+            case PhotoDiskRunnable.DISK_STATE_MISS:
+            case PhotoDiskRunnable.DISK_STATE_STALE:
+                outState = PhotoManager.DISK_CACHE_MISS;
+                break;
+            default:
+                outState = PhotoManager.DOWNLOAD_FAILED;
+                break;
+        }
+        handleState(outState);
+    }
+
     @Override
     public void setDownloadThread(Thread currentThread) {
-        setCurrentThread(currentThread);
+        if (currentThread != null) {
+            markDequeued();
+            downloadStartTime = SystemClock.uptimeMillis();
+            enterStage(currentThread, PhotoTaskState.STATE_DOWNLOADING);
+        } else {
+            setCurrentThread(null);
+        }
     }
 
     @Override
@@ -129,9 +730,30 @@ public class PhotoTask implements TaskRunnableDownloadMethods,
         int outState;
         switch (state) {
             case PhotoDownloadRunnable.HTTP_STATE_COMPLETED:
+                downloadEndTime = SystemClock.uptimeMillis();
+                if (isLocal()) {
+                    dataSource = PhotoManager.SOURCE_LOCAL;
+                } else {
+                    photoManager.recordDownload(SystemClock.uptimeMillis()
+                            - downloadStartTime, imageBuffer == null ? 0
+                            : imageBuffer.length, false);
+                    dataSource = PhotoManager.SOURCE_NETWORK;
+                }
+                outState = PhotoManager.DOWNLOAD_COMPLETE;
+                break;
+            case PhotoDownloadRunnable.HTTP_STATE_NOT_MODIFIED:
+                downloadEndTime = SystemClock.uptimeMillis();
+                photoManager.recordDownload(SystemClock.uptimeMillis()
+                        - downloadStartTime, 0, false);
+                revalidationBuffer = null;
+                dataSource = PhotoManager.SOURCE_REVALIDATED;
                 outState = PhotoManager.DOWNLOAD_COMPLETE;
                 break;
             case PhotoDownloadRunnable.HTTP_STATE_FAILED:
+                if (isWanted() && !isLocal()) {
+                    photoManager.recordDownload(SystemClock.uptimeMillis()
+                            - downloadStartTime, 0, true);
+                }
                 outState = PhotoManager.DOWNLOAD_FAILED;
                 break;
             default:
@@ -143,7 +765,13 @@ public class PhotoTask implements TaskRunnableDownloadMethods,
 
     @Override
     public void setImageDecodeThread(Thread currentThread) {
-        setCurrentThread(currentThread);
+        if (currentThread != null) {
+            markDequeued();
+            decodeStartTime = SystemClock.uptimeMillis();
+            enterStage(currentThread, PhotoTaskState.STATE_DECODING);
+        } else {
+            setCurrentThread(null);
+        }
     }
 
     @Override
@@ -151,6 +779,8 @@ public class PhotoTask implements TaskRunnableDownloadMethods,
         int outState;
         switch (state) {
             case PhotoDecodeRunnable.DECODE_STATE_COMPLETED:
+                decodeEndTime = SystemClock.uptimeMillis();
+                photoManager.recordDecodeTime(decodeEndTime - decodeStartTime);
                 outState = PhotoManager.TASK_COMPLETE;
                 break;
             case PhotoDecodeRunnable.DECODE_STATE_FAILED:
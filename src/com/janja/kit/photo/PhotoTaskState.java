@@ -0,0 +1,76 @@
+package com.janja.kit.photo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The generation in the high half and the state in the low half of one
+ * word, so a cancellation or delivery aimed at an earlier use of a pooled
+ * task can be told apart and ignored without a lock.
+ */
+class PhotoTaskState {
+
+    static final int STATE_QUEUED = 0;
+    static final int STATE_DOWNLOADING = 1;
+    static final int STATE_DECODING = 2;
+    static final int STATE_DELIVERING = 3;
+    static final int STATE_CANCELLED = 4;
+    static final int STATE_RECYCLED = 5;
+
+    private static final long STATE_MASK = 0xFFFFFFFFL;
+
+    private final AtomicLong stateWord = new AtomicLong(STATE_RECYCLED);
+
+    int getGeneration() {
+        return (int) (stateWord.get() >>> 32);
+    }
+
+    int getState() {
+        return (int) (stateWord.get() & STATE_MASK);
+    }
+
+    void setState(int state) {
+        long word = stateWord.get();
+        stateWord.set((word & ~STATE_MASK) | state);
+    }
+
+    /**
+     * Moves a live task to the given state; fails once the task has been
+     * cancelled or recycled.
+     */
+    boolean advance(int state) {
+        while (true) {
+            long word = stateWord.get();
+            int current = (int) (word & STATE_MASK);
+            if (current == STATE_CANCELLED || current == STATE_RECYCLED) {
+                return false;
+            }
+            if (stateWord.compareAndSet(word, (word & ~STATE_MASK) | state)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns false when the task has already been cancelled or has moved
+     * on past the given generation.
+     */
+    boolean cancel(int generation) {
+        while (true) {
+            long word = stateWord.get();
+            int current = (int) (word & STATE_MASK);
+            if ((int) (word >>> 32) != generation
+                    || current == STATE_CANCELLED || current == STATE_RECYCLED) {
+                return false;
+            }
+            if (stateWord.compareAndSet(word, (word & ~STATE_MASK)
+                    | STATE_CANCELLED)) {
+                return true;
+            }
+        }
+    }
+
+    void recycle() {
+        long word = stateWord.get();
+        stateWord.set(((word >>> 32) + 1) << 32 | STATE_RECYCLED);
+    }
+}
@@ -0,0 +1,374 @@
+package com.janja.kit.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.view.View;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decodes the visible part of a large photo as fixed-size tiles on the
+ * decode pool, so it can be viewed at full resolution without holding the
+ * whole bitmap in memory.
+ */
+class PhotoTileDecoder implements PhotoFetcher.Job {
+
+    private static final String LOG_TAG = "PhotoTileDecoder";
+
+    static final int TILE_SIZE = 512;
+
+    private static final class TileKey {
+        final int sampleSize;
+        final int col;
+        final int row;
+
+        TileKey(int sampleSize, int col, int row) {
+            this.sampleSize = sampleSize;
+            this.col = col;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return sampleSize == other.sampleSize && col == other.col
+                    && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return (sampleSize * 31 + col) * 31 + row;
+        }
+    }
+
+    class TileRunnable implements Runnable, PhotoPriorityQueue.Prioritized {
+
+        private final TileKey key;
+        private final long sequence;
+
+        TileRunnable(TileKey key, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            android.os.Process
+                    .setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            if (key == null) {
+                openDecoder();
+            } else {
+                decodeTile(key);
+            }
+        }
+
+        void drop() {
+            if (key == null) {
+                opening = false;
+            } else {
+                synchronized (pendingTiles) {
+                    pendingTiles.remove(key);
+                }
+            }
+        }
+
+        @Override
+        public int getPriority() {
+            return PhotoManager.PRIORITY_HIGH;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    private final PhotoManager photoManager;
+    private final Uri uri;
+    private final View view;
+    private final Object decoderLock = new Object();
+    private final LruCache<TileKey, Bitmap> tiles;
+    private final Set<TileKey> pendingTiles = new HashSet<TileKey>();
+    private volatile Set<TileKey> visibleTiles = Collections.emptySet();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect tileRect = new Rect();
+    private BitmapRegionDecoder decoder;
+    private Closeable sourceOwner;
+    private volatile Closeable cancelHandle;
+    private volatile boolean opening;
+    private volatile boolean released;
+    private volatile int width;
+    private volatile int height;
+
+    PhotoTileDecoder(PhotoManager photoManager, Uri uri, View view,
+            int maxSize) {
+        this.photoManager = photoManager;
+        this.uri = uri;
+        this.view = view;
+        tiles = new LruCache<TileKey, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(TileKey key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    Uri getSourceUri() {
+        return uri;
+    }
+
+    boolean isReady() {
+        return width > 0;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    void open() {
+        if (released || opening || isReady()) {
+            return;
+        }
+        opening = true;
+        photoManager.executeTileDecode(new TileRunnable(null,
+                photoManager.nextSequence()));
+    }
+
+    /**
+     * Draws the cached tiles that cover visible, given in source pixels, and
+     * queues decodes for the missing ones. scale is the number of view
+     * pixels per source pixel and picks the sample level.
+     */
+    void draw(Canvas canvas, RectF visible, float scale) {
+        int imageWidth = width;
+        int imageHeight = height;
+        if (imageWidth <= 0 || released) {
+            return;
+        }
+        int sampleSize = getSampleSize(scale);
+        int tileExtent = TILE_SIZE * sampleSize;
+        int firstCol = Math.max(0, (int) (visible.left / tileExtent));
+        int firstRow = Math.max(0, (int) (visible.top / tileExtent));
+        int lastCol = Math.min((imageWidth - 1) / tileExtent,
+                (int) (visible.right / tileExtent));
+        int lastRow = Math.min((imageHeight - 1) / tileExtent,
+                (int) (visible.bottom / tileExtent));
+
+        Set<TileKey> wanted = new HashSet<TileKey>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                wanted.add(new TileKey(sampleSize, col, row));
+            }
+        }
+        visibleTiles = wanted;
+
+        for (TileKey key : wanted) {
+            setTileRect(key, imageWidth, imageHeight);
+            Bitmap tile = tiles.get(key);
+            if (tile != null) {
+                canvas.drawBitmap(tile, null, tileRect, paint);
+                continue;
+            }
+            synchronized (pendingTiles) {
+                if (!pendingTiles.add(key)) {
+                    continue;
+                }
+            }
+            photoManager.executeTileDecode(new TileRunnable(key, photoManager
+                    .nextSequence()));
+        }
+    }
+
+    static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale > 0) {
+            while (sampleSize * 2 * scale <= 1) {
+                sampleSize *= 2;
+            }
+        }
+        return sampleSize;
+    }
+
+    void release() {
+        released = true;
+        visibleTiles = Collections.emptySet();
+        Closeable handle = cancelHandle;
+        if (handle != null) {
+            closeQuietly(handle);
+        }
+        synchronized (decoderLock) {
+            if (decoder != null) {
+                decoder.recycle();
+                decoder = null;
+            }
+            closeQuietly(sourceOwner);
+            sourceOwner = null;
+        }
+        tiles.evictAll();
+    }
+
+    private void setTileRect(TileKey key, int imageWidth, int imageHeight) {
+        int tileExtent = TILE_SIZE * key.sampleSize;
+        tileRect.set(key.col * tileExtent, key.row * tileExtent,
+                Math.min(imageWidth, (key.col + 1) * tileExtent),
+                Math.min(imageHeight, (key.row + 1) * tileExtent));
+    }
+
+    private void openDecoder() {
+        BitmapRegionDecoder regionDecoder = null;
+        Closeable owner = null;
+        try {
+            if (released) {
+                return;
+            }
+            byte[] data = readDiskCache();
+            if (data != null) {
+                regionDecoder = BitmapRegionDecoder.newInstance(data, 0,
+                        data.length, false);
+            } else {
+                PhotoFetcher fetcher = photoManager.getFetcher(uri);
+                if (fetcher == null) {
+                    Log.w(LOG_TAG, "No fetcher for " + uri);
+                    return;
+                }
+                PhotoFetcher.Result result = fetcher.fetch(this);
+                owner = result.getOwner();
+                if (result.getDescriptor() != null) {
+                    regionDecoder = BitmapRegionDecoder.newInstance(
+                            result.getDescriptor(), false);
+                } else if (result.getBytes() != null) {
+                    data = result.getBytes();
+                    regionDecoder = BitmapRegionDecoder.newInstance(data, 0,
+                            data.length, false);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to open " + uri + " for tiling", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            cancelHandle = null;
+            opening = false;
+        }
+
+        synchronized (decoderLock) {
+            if (released || regionDecoder == null) {
+                if (regionDecoder != null) {
+                    regionDecoder.recycle();
+                }
+                closeQuietly(owner);
+                return;
+            }
+            decoder = regionDecoder;
+            sourceOwner = owner;
+            height = regionDecoder.getHeight();
+            width = regionDecoder.getWidth();
+        }
+        view.postInvalidate();
+    }
+
+    private byte[] readDiskCache() {
+        PhotoDiskCache cache = photoManager.getDiskCache();
+        if (cache == null) {
+            return null;
+        }
+        // Same key as PhotoTask.getDiskCacheKey(), which the pipeline
+        // writes under.
+        return cache.get(PhotoDiskCache.hashKey(PhotoRequestKey
+                .normalize(uri.toString())));
+    }
+
+    private void decodeTile(TileKey key) {
+        Bitmap tile = null;
+        try {
+            if (released || !visibleTiles.contains(key)) {
+                return;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = key.sampleSize;
+            Rect region = new Rect();
+            int tileExtent = TILE_SIZE * key.sampleSize;
+            synchronized (decoderLock) {
+                if (decoder == null) {
+                    return;
+                }
+                region.set(key.col * tileExtent, key.row * tileExtent,
+                        Math.min(width, (key.col + 1) * tileExtent),
+                        Math.min(height, (key.row + 1) * tileExtent));
+                tile = decoder.decodeRegion(region, options);
+            }
+        } catch (OutOfMemoryError e) {
+            tiles.trimToSize(tiles.size() / 2);
+            Log.w(LOG_TAG, "Out of memory decoding a tile of " + uri);
+        } finally {
+            synchronized (pendingTiles) {
+                pendingTiles.remove(key);
+            }
+        }
+        if (tile != null && !released) {
+            tiles.put(key, tile);
+            view.postInvalidate();
+        }
+    }
+
+    @Override
+    public Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    public void markConnected() {
+    }
+
+    @Override
+    public void markResponseStarted() {
+    }
+
+    @Override
+    public void setCancelHandle(Closeable handle) {
+        cancelHandle = handle;
+        if (released) {
+            closeQuietly(handle);
+        }
+    }
+
+    @Override
+    public byte[] readFully(InputStream input, int length) throws IOException,
+            InterruptedException {
+        return PhotoSegmentedBuffer.readFully(input, length,
+                photoManager.getByteArrayPool());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.janja.kit.photo;
+
+public class PhotoTimings {
+
+    private final String url;
+    private final int dataSource;
+    private final boolean succeeded;
+    private final long bytes;
+    private final long queueWaitMillis;
+    private final long connectMillis;
+    private final long firstByteMillis;
+    private final long transferMillis;
+    private final long decodeMillis;
+    private final long deliveryMillis;
+    private final long totalMillis;
+    private final int limitExceeded;
+    private final boolean fallbackUsed;
+
+    PhotoTimings(String url, int dataSource, boolean succeeded, long bytes,
+            long queueWaitMillis, long connectMillis, long firstByteMillis,
+            long transferMillis, long decodeMillis, long deliveryMillis,
+            long totalMillis, int limitExceeded, boolean fallbackUsed) {
+        this.url = url;
+        this.dataSource = dataSource;
+        this.succeeded = succeeded;
+        this.bytes = bytes;
+        this.queueWaitMillis = queueWaitMillis;
+        this.connectMillis = connectMillis;
+        this.firstByteMillis = firstByteMillis;
+        this.transferMillis = transferMillis;
+        this.decodeMillis = decodeMillis;
+        this.deliveryMillis = deliveryMillis;
+        this.totalMillis = totalMillis;
+        this.limitExceeded = limitExceeded;
+        this.fallbackUsed = fallbackUsed;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getDataSource() {
+        return dataSource;
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public long getFirstByteMillis() {
+        return firstByteMillis;
+    }
+
+    public long getTransferMillis() {
+        return transferMillis;
+    }
+
+    public long getDecodeMillis() {
+        return decodeMillis;
+    }
+
+    public long getDeliveryMillis() {
+        return deliveryMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * The request limit the photo went over, or
+     * {@link PhotoManager#LIMIT_NONE}.
+     */
+    public int getLimitExceeded() {
+        return limitExceeded;
+    }
+
+    public boolean isFallbackUsed() {
+        return fallbackUsed;
+    }
+
+    @Override
+    public String toString() {
+        return "PhotoTimings[" + url + ", source=" + dataSource + ", ok="
+                + succeeded + ", bytes=" + bytes + ", queue="
+                + queueWaitMillis + ", connect=" + connectMillis
+                + ", ttfb=" + firstByteMillis + ", transfer="
+                + transferMillis + ", decode=" + decodeMillis
+                + ", delivery=" + deliveryMillis + ", total=" + totalMillis
+                + ", limit=" + limitExceeded + ", fallback=" + fallbackUsed
+                + "]";
+    }
+}
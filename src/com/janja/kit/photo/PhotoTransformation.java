@@ -0,0 +1,16 @@
+package com.janja.kit.photo;
+
+import android.graphics.Bitmap;
+
+public interface PhotoTransformation {
+
+    /**
+     * Runs on a decode thread. Return the source when it was modified in
+     * place; any other returned bitmap replaces it and the source goes back
+     * to the bitmap pool. New bitmaps should come from pool, which belongs
+     * to the manager running the request.
+     */
+    Bitmap transform(Bitmap source, PhotoBitmapPool pool);
+
+    String getKey();
+}
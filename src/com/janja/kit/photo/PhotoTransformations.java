@@ -0,0 +1,225 @@
+package com.janja.kit.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+public final class PhotoTransformations {
+
+    private static final int MAX_BLUR_RADIUS = 25;
+    private static final int BLUR_PASSES = 2;
+
+    private PhotoTransformations() {
+    }
+
+    public static PhotoTransformation centerCrop(int width, int height) {
+        return new CenterCrop(width, height);
+    }
+
+    public static PhotoTransformation resize(int width, int height) {
+        return new Resize(width, height);
+    }
+
+    public static PhotoTransformation roundCorners(float radius) {
+        return new RoundCorners(radius);
+    }
+
+    public static PhotoTransformation blur(int radius) {
+        return new Blur(radius);
+    }
+
+    private static Bitmap.Config getConfig(Bitmap source, boolean needsAlpha) {
+        Bitmap.Config config = source.getConfig();
+        if (config == null
+                || (needsAlpha && config != Bitmap.Config.ARGB_8888
+                        && config != Bitmap.Config.ARGB_4444)) {
+            return Bitmap.Config.ARGB_8888;
+        }
+        return config;
+    }
+
+    private static Bitmap draw(PhotoBitmapPool pool, Bitmap source,
+            int width, int height, Matrix matrix) {
+        Bitmap result = pool.obtain(width, height,
+                getConfig(source, false));
+        Canvas canvas = new Canvas(result);
+        canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return result;
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Size must be > 0: " + width
+                    + "x" + height);
+        }
+    }
+
+    private static class CenterCrop implements PhotoTransformation {
+
+        private final int width;
+        private final int height;
+
+        CenterCrop(int width, int height) {
+            checkSize(width, height);
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public Bitmap transform(Bitmap source, PhotoBitmapPool pool) {
+            int sourceWidth = source.getWidth();
+            int sourceHeight = source.getHeight();
+            if (sourceWidth == width && sourceHeight == height) {
+                return source;
+            }
+            float scale = Math.max((float) width / sourceWidth, (float) height
+                    / sourceHeight);
+            Matrix matrix = new Matrix();
+            matrix.setScale(scale, scale);
+            matrix.postTranslate((width - sourceWidth * scale) / 2f,
+                    (height - sourceHeight * scale) / 2f);
+            return draw(pool, source, width, height, matrix);
+        }
+
+        @Override
+        public String getKey() {
+            return "centerCrop(" + width + "x" + height + ")";
+        }
+    }
+
+    private static class Resize implements PhotoTransformation {
+
+        private final int width;
+        private final int height;
+
+        Resize(int width, int height) {
+            checkSize(width, height);
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public Bitmap transform(Bitmap source, PhotoBitmapPool pool) {
+            int sourceWidth = source.getWidth();
+            int sourceHeight = source.getHeight();
+            if (sourceWidth == width && sourceHeight == height) {
+                return source;
+            }
+            Matrix matrix = new Matrix();
+            matrix.setScale((float) width / sourceWidth, (float) height
+                    / sourceHeight);
+            return draw(pool, source, width, height, matrix);
+        }
+
+        @Override
+        public String getKey() {
+            return "resize(" + width + "x" + height + ")";
+        }
+    }
+
+    private static class RoundCorners implements PhotoTransformation {
+
+        private final float radius;
+
+        RoundCorners(float radius) {
+            if (radius < 0) {
+                throw new IllegalArgumentException("radius < 0");
+            }
+            this.radius = radius;
+        }
+
+        @Override
+        public Bitmap transform(Bitmap source, PhotoBitmapPool pool) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            Bitmap result = pool.obtain(width, height,
+                    getConfig(source, true));
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG
+                    | Paint.FILTER_BITMAP_FLAG);
+            paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP,
+                    Shader.TileMode.CLAMP));
+            new Canvas(result).drawRoundRect(new RectF(0, 0, width, height),
+                    radius, radius, paint);
+            return result;
+        }
+
+        @Override
+        public String getKey() {
+            return "roundCorners(" + radius + ")";
+        }
+    }
+
+    private static class Blur implements PhotoTransformation {
+
+        private final int radius;
+
+        Blur(int radius) {
+            if (radius < 1 || radius > MAX_BLUR_RADIUS) {
+                throw new IllegalArgumentException("radius must be in 1.."
+                        + MAX_BLUR_RADIUS);
+            }
+            this.radius = radius;
+        }
+
+        @Override
+        public Bitmap transform(Bitmap source, PhotoBitmapPool pool) {
+            Bitmap result = source;
+            if (!source.isMutable()) {
+                result = draw(pool, source, source.getWidth(),
+                        source.getHeight(), new Matrix());
+            }
+            int width = result.getWidth();
+            int height = result.getHeight();
+            int[] pixels = new int[width * height];
+            result.getPixels(pixels, 0, width, 0, 0, width, height);
+            boxBlur(pixels, width, height, radius);
+            result.setPixels(pixels, 0, width, 0, 0, width, height);
+            return result;
+        }
+
+        @Override
+        public String getKey() {
+            return "blur(" + radius + ")";
+        }
+    }
+
+    static void boxBlur(int[] pixels, int width, int height, int radius) {
+        int[] transposed = new int[pixels.length];
+        for (int i = 0; i < BLUR_PASSES; i++) {
+            blurRows(pixels, transposed, width, height, radius);
+            blurRows(transposed, pixels, height, width, radius);
+        }
+    }
+
+    private static void blurRows(int[] in, int[] out, int width, int height,
+            int radius) {
+        int window = radius * 2 + 1;
+        int last = width - 1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int a = 0, r = 0, g = 0, b = 0;
+            for (int i = -radius; i <= radius; i++) {
+                int pixel = in[row + Math.min(Math.max(i, 0), last)];
+                a += pixel >>> 24;
+                r += (pixel >> 16) & 0xff;
+                g += (pixel >> 8) & 0xff;
+                b += pixel & 0xff;
+            }
+            for (int x = 0; x < width; x++) {
+                out[x * height + y] = ((a / window) << 24)
+                        | ((r / window) << 16) | ((g / window) << 8)
+                        | (b / window);
+                int added = in[row + Math.min(x + radius + 1, last)];
+                int removed = in[row + Math.max(x - radius, 0)];
+                a += (added >>> 24) - (removed >>> 24);
+                r += ((added >> 16) & 0xff) - ((removed >> 16) & 0xff);
+                g += ((added >> 8) & 0xff) - ((removed >> 8) & 0xff);
+                b += (added & 0xff) - (removed & 0xff);
+            }
+        }
+    }
+}
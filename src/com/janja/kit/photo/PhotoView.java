@@ -4,6 +4,9 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.util.AttributeSet;
@@ -15,14 +18,25 @@ import java.net.URL;
 
 import com.janja.kit.R;
 
-public class PhotoView extends ImageView {
+public class PhotoView extends ImageView implements PhotoTarget {
 
-    private boolean cacheFlag;
     private boolean isDrawn;
     private WeakReference<View> thisView;
     private int hideShowResId = -1;
-    private URL imageURL;
+    private PhotoRequest photoRequest;
+    private PhotoRequest activeRequest;
     private PhotoTask downloadThread;
+    private int downloadGeneration;
+    private Bitmap pooledBitmap;
+    private int photoPriority = PhotoManager.PRIORITY_NORMAL;
+    private Object photoTag;
+    private PhotoManager photoManager;
+    private boolean tiledMode;
+    private PhotoTileDecoder tileDecoder;
+    private final Matrix tileMatrix = new Matrix();
+    private final Matrix tileInverse = new Matrix();
+    private final RectF tileBounds = new RectF();
+    private final float[] tileValues = new float[9];
 
     public PhotoView(Context context) {
         super(context);
@@ -62,8 +76,8 @@ public class PhotoView extends ImageView {
         showView(View.VISIBLE);
     }
 
-    final URL getLocation() {
-        return imageURL;
+    public PhotoRequest getPhotoRequest() {
+        return photoRequest;
     }
 
     @Override
@@ -77,6 +91,19 @@ public class PhotoView extends ImageView {
                 this.thisView = new WeakReference<View>(localView);
             }
         }
+        updateRequestPriority();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateRequestPriority();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateRequestPriority();
     }
 
     @Override
@@ -93,16 +120,225 @@ public class PhotoView extends ImageView {
         }
 
         this.downloadThread = null;
+        this.activeRequest = null;
         super.onDetachedFromWindow();
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        if ((!isDrawn) && (imageURL != null)) {
-            downloadThread = PhotoManager.startDownload(this, cacheFlag);
+        if ((!isDrawn) && (photoRequest != null)) {
+            downloadThread = loadPhotoRequest();
             isDrawn = true;
         }
         super.onDraw(canvas);
+        if (tileDecoder != null) {
+            drawTiles(canvas);
+        }
+    }
+
+    /**
+     * Draws full resolution tiles over the decoded bitmap once the image
+     * matrix scales it past its own pixels.
+     */
+    private void drawTiles(Canvas canvas) {
+        Drawable drawable = getDrawable();
+        if (pooledBitmap == null || drawable == null
+                || drawable.getIntrinsicWidth() <= 0 || !tileDecoder.isReady()) {
+            return;
+        }
+        float sourceScale = (float) drawable.getIntrinsicWidth()
+                / tileDecoder.getWidth();
+        tileMatrix.set(getImageMatrix());
+        tileMatrix.preScale(sourceScale, sourceScale);
+        tileMatrix.getValues(tileValues);
+        float scale = tileValues[Matrix.MSCALE_X];
+        if (scale <= sourceScale || !tileMatrix.invert(tileInverse)) {
+            return;
+        }
+        tileBounds.set(0, 0, getWidth() - getPaddingLeft()
+                - getPaddingRight(), getHeight() - getPaddingTop()
+                - getPaddingBottom());
+        tileInverse.mapRect(tileBounds);
+
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.concat(tileMatrix);
+        tileDecoder.draw(canvas, tileBounds, scale);
+        canvas.restore();
+    }
+
+    public boolean isTiledMode() {
+        return tiledMode;
+    }
+
+    /**
+     * Decodes visible regions of the source at full resolution when the
+     * photo is zoomed in through the image matrix, keeping at most a quarter
+     * of the bitmap cache budget in tiles.
+     */
+    public void setTiledMode(boolean enabled) {
+        tiledMode = enabled;
+        if (!enabled) {
+            releaseTileDecoder();
+        } else if (pooledBitmap != null) {
+            openTileDecoder();
+        }
+        invalidate();
+    }
+
+    private void openTileDecoder() {
+        if (photoRequest == null) {
+            return;
+        }
+        Uri uri = photoRequest.getUri();
+        if (tileDecoder != null && !tileDecoder.getSourceUri().equals(uri)) {
+            releaseTileDecoder();
+        }
+        if (tileDecoder == null) {
+            PhotoManager manager = getPhotoManager();
+            tileDecoder = new PhotoTileDecoder(manager, uri, this,
+                    manager.getBitmapBudget() / 4);
+        }
+        tileDecoder.open();
+    }
+
+    private void releaseTileDecoder() {
+        if (tileDecoder != null) {
+            tileDecoder.release();
+            tileDecoder = null;
+        }
+    }
+
+    public PhotoManager getPhotoManager() {
+        return photoManager != null ? photoManager : PhotoManager
+                .getInstance();
+    }
+
+    /**
+     * Loads through the given manager instead of the default one; a photo
+     * already requested is loaded again through the new manager.
+     */
+    public void setPhotoManager(PhotoManager manager) {
+        if (manager == photoManager) {
+            return;
+        }
+        PhotoRequest request = photoRequest;
+        setPhotoRequest(null, null);
+        photoManager = manager;
+        setPhotoRequest(request);
+    }
+
+    public int getPhotoPriority() {
+        return photoPriority;
+    }
+
+    public void setPhotoPriority(int priority) {
+        photoPriority = priority;
+        if (photoRequest != null) {
+            photoRequest = photoRequest.buildUpon().setPriority(priority)
+                    .build();
+        }
+        updateRequestPriority();
+    }
+
+    /**
+     * A view that is attached and shown asks one level above its own
+     * priority, so on-screen photos are scheduled first and only off-screen
+     * work is dropped when a queue fills up.
+     */
+    private int getRequestPriority(int priority) {
+        if (getWindowToken() != null && getWindowVisibility() == VISIBLE
+                && isShown()) {
+            return Math.min(priority + 1, PhotoManager.PRIORITY_HIGH);
+        }
+        return priority;
+    }
+
+    private void updateRequestPriority() {
+        if (activeRequest == null || photoRequest == null) {
+            return;
+        }
+        int priority = getRequestPriority(photoRequest.getPriority());
+        if (priority != activeRequest.getPriority()) {
+            activeRequest = activeRequest.buildUpon().setPriority(priority)
+                    .build();
+            getPhotoManager().updateTargetRequest(this, activeRequest);
+            PhotoManager.updatePriority(downloadThread);
+        }
+    }
+
+    public Object getPhotoTag() {
+        return photoTag != null ? photoTag : getContext();
+    }
+
+    public void setPhotoTag(Object tag) {
+        photoTag = tag;
+        if (activeRequest != null) {
+            activeRequest = activeRequest.buildUpon().setTag(getPhotoTag())
+                    .build();
+            getPhotoManager().updateTargetRequest(this, activeRequest);
+        }
+    }
+
+    private PhotoTask loadPhotoRequest() {
+        PhotoRequest request = photoRequest.resolveSize(this);
+        PhotoRequest.Builder builder = request.buildUpon().setPriority(
+                getRequestPriority(request.getPriority()));
+        if (request.getTag() == null) {
+            builder.setTag(getPhotoTag());
+        }
+        request = builder.build();
+        activeRequest = request;
+        PhotoTask photoTask = getPhotoManager().enqueue(request, this);
+        // Tasks are only recycled on this thread, so the generation read
+        // here is still the one this view joined.
+        if (photoTask != null) {
+            downloadGeneration = photoTask.getGeneration();
+        }
+        return photoTask;
+    }
+
+    @Override
+    public void onPhotoStatus(int state) {
+        switch (state) {
+            case PhotoManager.TASK_QUEUED:
+                setStatusResource(R.drawable.imagequeued);
+                break;
+            case PhotoManager.DOWNLOAD_STARTED:
+                setStatusResource(R.drawable.imagedownloading);
+                break;
+            case PhotoManager.DOWNLOAD_COMPLETE:
+                setStatusResource(R.drawable.decodequeued);
+                break;
+            case PhotoManager.DECODE_STARTED:
+                setStatusResource(R.drawable.decodedecoding);
+                break;
+            case PhotoManager.DOWNLOAD_FAILED:
+                downloadThread = null;
+                activeRequest = null;
+                setStatusResource(R.drawable.imagedownloadfailed);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onPhotoLoaded(Bitmap bitmap) {
+        downloadThread = null;
+        activeRequest = null;
+        setPhotoBitmap(bitmap);
+        if (tiledMode) {
+            openTileDecoder();
+        }
+    }
+
+    @Override
+    public void onPhotoDropped() {
+        downloadThread = null;
+        activeRequest = null;
+        isDrawn = false;
+        invalidate();
     }
 
     public void setHideView(View view) {
@@ -114,8 +350,37 @@ public class PhotoView extends ImageView {
         super.setImageBitmap(paramBitmap);
     }
 
+    void setPhotoBitmap(Bitmap bitmap) {
+        Bitmap previous = pooledBitmap;
+        getPhotoManager().getPool().acquire(bitmap);
+        pooledBitmap = bitmap;
+        setImageBitmap(bitmap);
+        if (previous != null) {
+            getPhotoManager().getPool().release(previous);
+        }
+    }
+
+    private Bitmap detachPooledBitmap() {
+        Bitmap released = pooledBitmap;
+        pooledBitmap = null;
+        return released;
+    }
+
+    private void releasePooledBitmap(Bitmap bitmap) {
+        if (bitmap != null) {
+            getPhotoManager().getPool().release(bitmap);
+        }
+    }
+
     @Override
     public void setImageDrawable(Drawable drawable) {
+        Bitmap released = null;
+        if (pooledBitmap != null
+                && (!(drawable instanceof BitmapDrawable) || ((BitmapDrawable) drawable)
+                        .getBitmap() != pooledBitmap)) {
+            released = detachPooledBitmap();
+        }
+
         int viewState;
 
         if (drawable == null) {
@@ -126,35 +391,60 @@ public class PhotoView extends ImageView {
         showView(viewState);
 
         super.setImageDrawable(drawable);
+        releasePooledBitmap(released);
     }
 
     @Override
     public void setImageResource(int resId) {
+        Bitmap released = detachPooledBitmap();
         super.setImageResource(resId);
+        releasePooledBitmap(released);
     }
 
     @Override
     public void setImageURI(Uri uri) {
+        Bitmap released = detachPooledBitmap();
         super.setImageURI(uri);
+        releasePooledBitmap(released);
     }
 
     public void setImageURL(URL pictureURL, boolean cacheFlag,
             Drawable imageDrawable) {
-        if (imageURL != null) {
-            if (!imageURL.equals(pictureURL)) {
-                PhotoManager.removeDownload(downloadThread, imageURL);
+        PhotoRequest request = null;
+        if (pictureURL != null) {
+            request = new PhotoRequest.Builder(pictureURL)
+                    .setMemoryCacheEnabled(cacheFlag)
+                    .setDiskCacheEnabled(cacheFlag)
+                    .setPriority(photoPriority).build();
+        }
+        setPhotoRequest(request, imageDrawable);
+    }
+
+    public void setPhotoRequest(PhotoRequest request) {
+        setPhotoRequest(request, request == null ? null : request
+                .getPlaceholder());
+    }
+
+    private void setPhotoRequest(PhotoRequest request, Drawable placeholder) {
+        if (photoRequest != null) {
+            if (request == null
+                    || !photoRequest.getKey().equals(request.getKey())) {
+                getPhotoManager().dequeue(downloadThread, downloadGeneration,
+                        this);
+                releaseTileDecoder();
+                downloadThread = null;
+                activeRequest = null;
             } else {
                 return;
             }
         }
 
-        setImageDrawable(imageDrawable);
+        setImageDrawable(placeholder);
 
-        imageURL = pictureURL;
+        photoRequest = request;
 
-        if ((isDrawn) && (pictureURL != null)) {
-            this.cacheFlag = cacheFlag;
-            downloadThread = PhotoManager.startDownload(this, cacheFlag);
+        if ((isDrawn) && (request != null)) {
+            downloadThread = loadPhotoRequest();
         }
     }
 